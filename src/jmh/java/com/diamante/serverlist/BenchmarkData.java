@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Shared helpers for the benchmarks
+ *
+ * @author Diamante
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * A lot of the code we measure logs as it goes, we don't want to measure
+     * the log queue or the terminal
+     */
+    static void silenceOutput() {
+        Log.setLevel(Log.Level.Off);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Spread over many addresses with a few ports each, like the real list
+     */
+    static Server serverAt(int i) {
+        var ip = 0x0A000000 | (i >>> 2);
+        var bytes = new byte[]{(byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip};
+
+        try {
+            return new Server(InetAddress.getByAddress(bytes), (short) (27016 + (i & 3)), Utils.CLIENT_VERSION);
+        } catch (UnknownHostException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return an info reply like the ones game servers send
+     */
+    static byte[] infoReply() {
+        var data = new byte[ClientEmulator.SERVER_INFO_SIZE];
+        PacketCodec.writeInfoQuery(data, 1234);
+        PacketCodec.writeInt(data, PacketCodec.PLAYERS_OFFSET, 12);
+        PacketCodec.writeInt(data, PacketCodec.MAX_PLAYERS_OFFSET, 18);
+
+        var info = "\\hostname\\^1Benchmark ^7Server\\mapname\\mp_dome\\g_gametype\\war\\sv_maxclients\\18\\shortversion\\1.4\\protocol\\1".getBytes();
+        System.arraycopy(info, 0, data, PacketCodec.INFO_STRING_OFFSET, info.length);
+
+        return data;
+    }
+}
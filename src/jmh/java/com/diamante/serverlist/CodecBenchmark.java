@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Byte swapping in Utils against reading the fields in place with
+ * PacketCodec, byteBufferSwap is how Utils.longSwap used to work. Also the
+ * parsing of a game server info reply
+ *
+ * @author Diamante
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private final byte[] heartbeat = new byte[Utils.PACKET_SERVERT_LEN];
+
+    private final byte[] address = new byte[]{127, 0, 0, 1};
+
+    private final byte[] infoReply = BenchmarkData.infoReply();
+
+    private final Server server = BenchmarkData.serverAt(0);
+
+    public CodecBenchmark() {
+        BenchmarkData.silenceOutput();
+        PacketCodec.writeHeartbeat(heartbeat, Utils.CLIENT_VERSION, (short) 27016);
+    }
+
+    @Benchmark
+    public int byteBufferSwap() {
+        var buffer = ByteBuffer.allocate(4);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(heartbeat, 4, 4);
+        return buffer.getInt(0);
+    }
+
+    @Benchmark
+    public int utilsLongSwap() {
+        return Utils.longSwap(Arrays.copyOfRange(heartbeat, 4, 8));
+    }
+
+    @Benchmark
+    public byte[] utilsLongSwapEncode() {
+        return Utils.longSwap(Utils.CLIENT_VERSION);
+    }
+
+    @Benchmark
+    public short utilsShortSwap() {
+        return Utils.shortSwap(Arrays.copyOfRange(heartbeat, 8, 10));
+    }
+
+    @Benchmark
+    public byte[] utilsSwapByteArray() {
+        Utils.swapByteArray(address);
+        return address;
+    }
+
+    @Benchmark
+    public int codecDecodeHeartbeat() {
+        return PacketCodec.magic(heartbeat) ^ PacketCodec.version(heartbeat) ^ PacketCodec.netPort(heartbeat);
+    }
+
+    @Benchmark
+    public byte[] codecEncodeHeartbeat() {
+        PacketCodec.writeHeartbeat(heartbeat, Utils.CLIENT_VERSION, (short) 27016);
+        return heartbeat;
+    }
+
+    @Benchmark
+    public JSONObject infoReply() {
+        return InfoDumper.parseServerResponse(server, infoReply);
+    }
+
+    @Benchmark
+    public String infoStringDecode() {
+        return new String(infoReply, PacketCodec.INFO_STRING_OFFSET, PacketCodec.INFO_STRING_LEN, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int infoStringParse() {
+        var info = InfoString.of(infoReply);
+        return info.getInt("sv_maxclients", 0) + info.map().length();
+    }
+}
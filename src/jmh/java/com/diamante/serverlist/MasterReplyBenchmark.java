@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding the list reply of the master
+ *
+ * @author Diamante
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MasterReplyBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int servers;
+
+    private byte[] listReply;
+
+    private MasterServerPinger pinger;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkData.silenceOutput();
+
+        var list = new ServerList();
+        for (var i = 0; i < servers; ++i) {
+            list.addServer(BenchmarkData.serverAt(i));
+        }
+
+        listReply = list.buildResponse(Utils.CLIENT_VERSION);
+        pinger = new MasterServerPinger();
+    }
+
+    @Benchmark
+    public void masterReply() {
+        pinger.processReply(listReply, false);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.lang.ref.Reference;
+
+import java.util.HashSet;
+import java.util.function.Supplier;
+
+/**
+ * Rough heap usage per registered server for each way of storing them. Not a
+ * JMH benchmark, it measures what stays on the heap rather than time. Run it
+ * from the benchmarks jar:
+ * <pre>
+ * java -cp target/benchmarks.jar com.diamante.serverlist.RegistryFootprint [count]
+ * </pre>
+ *
+ * @author Diamante
+ */
+public class RegistryFootprint {
+
+    private static final int DEFAULT_COUNT = 100000;
+
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        for (var i = 0; i < 5; ++i) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void measure(String name, int count, Supplier<Object> fill) {
+        var before = usedHeap();
+        var registry = fill.get();
+        var after = usedHeap();
+
+        System.out.println(String.format("%-24s %8d servers %10d bytes %6.1f bytes/server", name, count, after - before, (after - before) / (double) count));
+
+        // Keep it reachable until we measured
+        Reference.reachabilityFence(registry);
+    }
+
+    public static void main(String[] args) {
+        var count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COUNT;
+
+        // The registry before the storage rework
+        measure("HashSet<Server>", count, () -> {
+            var set = new HashSet<Server>();
+            for (var i = 0; i < count; ++i) {
+                set.add(BenchmarkData.serverAt(i));
+            }
+
+            return set;
+        });
+
+        measure("HashServerStore", count, () -> {
+            var store = new HashServerStore(ServerList.INACTIVE_TIMEOUT, server -> {
+            });
+            for (var i = 0; i < count; ++i) {
+                store.upsert(BenchmarkData.serverAt(i));
+            }
+
+            return store;
+        });
+
+        measure("PackedServerStore", count, () -> {
+            var store = new PackedServerStore(ServerList.INACTIVE_TIMEOUT, server -> {
+            }, server -> {
+            });
+            for (var i = 0; i < count; ++i) {
+                store.upsert(BenchmarkData.serverAt(i));
+            }
+
+            return store;
+        });
+    }
+}
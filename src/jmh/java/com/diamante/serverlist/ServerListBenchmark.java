@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The registry operations the master server runs for every packet
+ *
+ * @author Diamante
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerListBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int servers;
+
+    @Param({"Hash", "Packed"})
+    private ServerList.Storage storage;
+
+    private ServerList list;
+
+    private Server[] registered;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkData.silenceOutput();
+
+        list = new ServerList(storage);
+        registered = new Server[servers];
+
+        for (var i = 0; i < servers; ++i) {
+            registered[i] = BenchmarkData.serverAt(i);
+            list.addServer(registered[i]);
+        }
+    }
+
+    private Server nextServer() {
+        next = next + 1 == servers ? 0 : next + 1;
+        return registered[next];
+    }
+
+    /**
+     * A heartbeat from a server that is already registered
+     */
+    @Benchmark
+    public void addServer() {
+        list.addServer(nextServer());
+    }
+
+    @Benchmark
+    public boolean isServerRegistered() {
+        return list.isServerRegistered(nextServer());
+    }
+
+    /**
+     * Full sweep where nothing is stale, the worst case for the background
+     * expiry is a fraction of this
+     */
+    @Benchmark
+    public void removeInactive() {
+        list.removeInactive();
+    }
+
+    /**
+     * What a client query costs while the list does not change
+     */
+    @Benchmark
+    public byte[] createResponse() {
+        return list.createResponse(Utils.CLIENT_VERSION);
+    }
+
+    /**
+     * What a client query costs right after the list changed
+     */
+    @Benchmark
+    public byte[] buildResponse() {
+        return list.buildResponse(Utils.CLIENT_VERSION);
+    }
+}
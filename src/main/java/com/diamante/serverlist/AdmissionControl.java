@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.InetAddress;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token buckets per source address, so one host can't flood the master with
+ * connections, registrations or queries. Every address has one bucket per
+ * Kind, each refilled at its own rate and holding up to BURST_SECONDS worth
+ * of tokens.
+ *
+ * Addresses are spread over STRIPES independently locked maps, so threads
+ * only wait for each other when their addresses land on the same stripe.
+ * Past MAX_ADDRESSES_PER_STRIPE the least recently seen address of a stripe
+ * is dropped, it starts over with full buckets if it comes back.
+ *
+ * @author Diamante
+ */
+public class AdmissionControl {
+
+    /**
+     * What a client is trying to do
+     */
+    public enum Kind {
+        Connection, Heartbeat, Query;
+    }
+
+    // Per address and second
+    public static final double DEFAULT_CONNECTION_RATE = 20;
+
+    public static final double DEFAULT_HEARTBEAT_RATE = 10;
+
+    public static final double DEFAULT_QUERY_RATE = 5;
+
+    // How long an idle address may go at full rate
+    private static final double BURST_SECONDS = 2;
+
+    private static final int STRIPES = 64;
+
+    private static final int MAX_ADDRESSES_PER_STRIPE = 4096;
+
+    private static final int KINDS = Kind.values().length;
+
+    /**
+     * The buckets of one address
+     */
+    private static class Buckets {
+
+        private final double[] tokens = new double[KINDS];
+
+        // System.nanoTime() of the last refill of each bucket
+        private final long[] refilled = new long[KINDS];
+    }
+
+    private final double[] rates = new double[KINDS];
+
+    private final double[] bursts = new double[KINDS];
+
+    private final Map<InetAddress, Buckets>[] stripes;
+
+    /**
+     * A rate of 0 lets everything through for that kind
+     *
+     * @param connectionRate connections per second and address
+     * @param heartbeatRate heartbeats per second and address
+     * @param queryRate list queries per second and address
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public AdmissionControl(double connectionRate, double heartbeatRate, double queryRate) {
+        rates[Kind.Connection.ordinal()] = connectionRate;
+        rates[Kind.Heartbeat.ordinal()] = heartbeatRate;
+        rates[Kind.Query.ordinal()] = queryRate;
+
+        for (var kind = 0; kind < KINDS; ++kind) {
+            bursts[kind] = Math.max(1, rates[kind] * BURST_SECONDS);
+        }
+
+        stripes = new Map[STRIPES];
+        for (var i = 0; i < STRIPES; ++i) {
+            // Access order, so the eldest entry is the least recently seen one
+            stripes[i] = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<InetAddress, Buckets> eldest) {
+                    return size() > MAX_ADDRESSES_PER_STRIPE;
+                }
+            };
+        }
+    }
+
+    /**
+     * Takes a token from the bucket of address for kind
+     *
+     * @return false if address is over its budget
+     */
+    public boolean tryAcquire(InetAddress address, Kind kind) {
+        var k = kind.ordinal();
+        if (rates[k] <= 0) {
+            return true;
+        }
+
+        var hash = address.hashCode();
+        var stripe = stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        var now = System.nanoTime();
+
+        synchronized (stripe) {
+            var buckets = stripe.get(address);
+            if (buckets == null) {
+                buckets = new Buckets();
+                for (var i = 0; i < KINDS; ++i) {
+                    buckets.tokens[i] = bursts[i];
+                    buckets.refilled[i] = now;
+                }
+                stripe.put(address, buckets);
+            }
+
+            var tokens = Math.min(bursts[k], buckets.tokens[k] + (now - buckets.refilled[k]) * rates[k] / 1e9);
+            buckets.refilled[k] = now;
+
+            if (tokens < 1) {
+                buckets.tokens[k] = tokens;
+                return false;
+            }
+
+            buckets.tokens[k] = tokens - 1;
+            return true;
+        }
+    }
+}
@@ -16,18 +16,12 @@
  */
 package com.diamante.serverlist;
 
-import java.lang.management.ManagementFactory;
-
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-
 import java.io.FileReader;
 import java.io.IOException;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.nio.channels.IllegalBlockingModeException;
 
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -45,45 +39,41 @@ public class ClientEmulator implements Runnable {
 
     public static final int SERVER_INFO_SIZE = 2129;
 
-    private final Set<Server> servers;
+    private final Collection<Server> servers;
 
-    private static final int SOCKET_TIMEOUT = 4000;
-    private DatagramSocket socket;
+    private final ProbeEngine engine;
 
-    public ClientEmulator(Set<Server> servers) {
-        try {
-            socket = new DatagramSocket();
-            socket.setSoTimeout(SOCKET_TIMEOUT);
-        }
-        catch (SocketException ex) {
-            System.err.println("ClientEmulator: SocketException while creating new DatagramSocket");
-            System.exit(-1);
-        }
+    // Null when we are not part of a master server
+    private final Metrics metrics;
 
+    // Null if every scan probes every server
+    private final ProbeCache cache;
+
+    public ClientEmulator(Collection<Server> servers, Metrics metrics, ProbeCache cache) {
         this.servers = servers;
+        this.engine = new ProbeEngine();
+        this.metrics = metrics;
+        this.cache = cache;
     }
 
-    public ClientEmulator() {
-        try {
-            socket = new DatagramSocket();
-            socket.setSoTimeout(SOCKET_TIMEOUT);
-        }
-        catch (SocketException ex) {
-            System.err.println("ClientEmulator: SocketException while creating new DatagramSocket");
-            System.exit(-1);
-        }
+    public ClientEmulator(Collection<Server> servers) {
+        this(servers, null, null);
+    }
 
-        this.servers = null;
+    public ClientEmulator() {
+        this(null);
     }
 
     public void pingSingleServer(String ip) {
         var to = Utils.stringToServer(ip);
         if (to != null) {
-            handleServer(to);
+            handleServers(List.of(to));
         }
     }
 
     public void pingServers(String filePath) {
+        var toPing = new ArrayList<Server>();
+
         try {
             var parser = new JSONParser();
             var root = (JSONObject) parser.parse(new FileReader(filePath));
@@ -96,99 +86,87 @@ public class ClientEmulator implements Runnable {
                 var ip = (String) server.get("IP");
                 var port = (long) server.get("port"); // Port is stored as a number
 
-                System.out.println(ip + ":" + port);
+                Log.debug("%s:%d", ip, port);
                 var to = Utils.stringToServer(ip + ":" + port);
                 if (to != null) {
-                    handleServer(to);
+                    toPing.add(to);
                 }
             }
         }
         catch (IOException e) {
-            System.err.println("Error reading the file: " + e.getMessage());
+            Log.error("Error reading the file: %s", e.getMessage());
         }
         catch (ParseException e) {
-            System.err.println("Error parsing JSON: " + e.getMessage());
+            Log.error("Error parsing JSON: %s", e.getMessage());
         }
-    }
 
-    private void sendDatagramPacket(DatagramPacket packet) {
-        try {
-            socket.send(packet);
-        }
-        catch (IOException | IllegalArgumentException | IllegalBlockingModeException ex) {
-            // Socket will timeout
-            System.err.println("sendDatagramPacket: exception while sending a packet");
-        }
+        handleServers(toPing);
     }
 
-    private DatagramPacket receiveDatagramPacket() {
-        var buffer = new byte[SERVER_INFO_SIZE];
-        var packet = new DatagramPacket(buffer, buffer.length);
+    private void handleServers(Collection<Server> toPing) {
+        var before = System.nanoTime();
 
-        try {
-            socket.receive(packet);
-            System.out.println(String.format("receiveDatagramPacket: Server %s:%d returned a packet", packet.getAddress().toString(), packet.getPort()));
-            return packet;
-        }
-        catch (SocketException ex) {
-            System.err.println("receiveDatagramPacket: SocketException");
-            return null;
-        }
-        catch (IllegalBlockingModeException ex) {
-            System.err.println("receiveDatagramPacket: IllegalBlockingModeException");
-            return null;
-        }
-        catch (SocketTimeoutException ex) {
-            System.err.println("receiveDatagramPacket: SocketTimeoutException");
-            return null;
-        }
-        catch (IOException ex) {
-            System.err.println("receiveDatagramPacket: IOException");
-            return null;
+        engine.probe(toPing, newListener());
+
+        if (metrics != null) {
+            metrics.onScan(System.nanoTime() - before);
         }
     }
 
-    private byte[] generateClientPing() {
-        // Use this as tick
-        var jvmUpTime = (Long) ManagementFactory.getRuntimeMXBean().getUptime();
-
-        var tickLE = Utils.longSwap(jvmUpTime.intValue());
-        var magicLE = Utils.longSwap(SERVER_QUERY);
+    /**
+     * Probes servers as they are put into feed, returns once it is closed
+     * and every probe is done
+     */
+    public void probe(ProbeEngine.Feed feed) {
+        var before = System.nanoTime();
 
-        var data = new byte[8];
+        engine.probe(feed, newListener());
 
-        System.arraycopy(magicLE, 0, data, 0, 4);
-        System.arraycopy(tickLE, 0, data, 4, 4);
-
-        return data;
+        if (metrics != null) {
+            metrics.onScan(System.nanoTime() - before);
+        }
     }
 
-    private void sendPingToServer(Server server) {
-        var data = generateClientPing();
-        // We use the net_port like a client would.
-        var packet = new DatagramPacket(data, data.length, server.getAddress(), server.getNetPort());
-        sendDatagramPacket(packet);
-    }
+    private ProbeEngine.Listener newListener() {
+        return new ProbeEngine.Listener() {
+            @Override
+            public void onReply(Server server, byte[] data, int length) {
+                if (metrics != null) {
+                    metrics.onProbeReply();
+                }
 
-    private void handleServer(Server server) {
-        sendPingToServer(server);
-        var response = receiveDatagramPacket();
-        if (response == null) {
-            return;
-        }
+                var result = InfoDumper.dumpServerResponse(server, data);
+                if (cache != null) {
+                    cache.put(server, result);
+                }
+            }
 
-        var rawData = response.getData();
-        InfoDumper.dumpServerResponse(server, rawData);
+            @Override
+            public void onTimeout(Server server) {
+                if (metrics != null) {
+                    metrics.onProbeTimeout();
+                }
+            }
+        };
     }
 
+    /**
+     * Probes every server we don't have a fresh result for
+     */
     @Override
     public void run() {
-        synchronized (servers) {
-            var it = servers.iterator();
-            while (it.hasNext()) {
-                var server = it.next();
-                handleServer(server);
+        // Copy the list, the master server keeps changing it while we wait
+        // on replies
+        var toPing = new ArrayList<Server>();
+        var total = 0;
+        for (var server : servers) {
+            ++total;
+            if (cache == null || cache.get(server) == null) {
+                toPing.add(server);
             }
         }
+
+        Log.info("ClientEmulator: probing %d of %d servers, the rest are cached", toPing.size(), total);
+        handleServers(toPing);
     }
 }
@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps the registries of several masters in sync so any of them can answer
+ * a query with the full list. Joins, heartbeats and expiries are collected
+ * for a short interval, the latest one per server wins, and then pushed over
+ * UDP to every peer. Every few seconds the whole registry also goes to one
+ * peer in turn, which catches up a node that just started or lost packets.
+ *
+ * Changes learned from a peer are applied with their original time and not
+ * passed on, so every node needs every other node in its peer list.
+ *
+ * Packets are LE like the wire:
+ * <pre>
+ * magic(4) format(4) node(8) sequence(8) queued_ms(8) count(2) then count times type(1) ip(4) net_port(2) version(4) time(8)
+ * </pre>
+ *
+ * queued_ms is when the oldest change in the packet happened, 0 for a full
+ * sync. Nodes share a clock on loopback, so the receiver can tell how long a
+ * change took to get there.
+ *
+ * A packet can add or remove any server, so only packets from the address
+ * and port of a peer are taken. With a shared secret every packet also ends
+ * in mac(16), the first 16 bytes of an HMAC-SHA256 over the rest of it, and
+ * a packet without a matching one is dropped. Use one on any network where
+ * the source address of a peer can be spoofed.
+ *
+ * sequence is the send time in microseconds, bumped so it never repeats. A
+ * signed packet is only taken if its sequence is within REPLAY_WINDOW of our
+ * clock and above the last one from the same peer, so a captured packet
+ * can't be replayed later. A packet overtaken by a later one is dropped as
+ * well, the next full sync makes up for it.
+ *
+ * @author Diamante
+ */
+public class ClusterGossip {
+
+    public static final int DEFAULT_PORT = 27018;
+
+    private static final int MAGIC = 0x534C4750; // SLGP
+
+    private static final int FORMAT = 2;
+
+    private static final int HEADER_LEN = 34;
+
+    private static final int SEQUENCE_OFFSET = 16;
+
+    private static final int RECORD_LEN = 19;
+
+    private static final int MAC_LEN = 16;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    // Stays below the usual MTU so nothing gets fragmented
+    private static final int MAX_PACKET_LEN = 1400;
+
+    // Leaves room for the mac whether we sign or not
+    private static final int MAX_RECORDS = (MAX_PACKET_LEN - HEADER_LEN - MAC_LEN) / RECORD_LEN;
+
+    private static final byte HEARTBEAT = 1;
+
+    private static final byte EXPIRE = 2;
+
+    // Milliseconds between two pushes of the pending changes
+    private static final long PUSH_INTERVAL = 200;
+
+    // Seconds between two full syncs
+    private static final long SYNC_INTERVAL = 10;
+
+    // Milliseconds a signed packet stays valid, the clocks of the nodes must
+    // be closer than this
+    private static final long REPLAY_WINDOW = 30000;
+
+    /**
+     * The latest change of a server
+     */
+    private static class Change {
+
+        private final byte type;
+
+        private final Server server;
+
+        private final long time;
+
+        private Change(byte type, Server server, long time) {
+            this.type = type;
+            this.server = server;
+            this.time = time;
+        }
+    }
+
+    private final ServerList serverList;
+
+    private final Metrics metrics;
+
+    private final List<InetSocketAddress> peers;
+
+    // The only addresses we take packets from
+    private final Set<InetSocketAddress> trusted;
+
+    // Null when packets are not signed
+    private final SecretKeySpec key;
+
+    // Tells our own packets apart if we are in our peer list
+    private final long node = ThreadLocalRandom.current().nextLong();
+
+    private final Map<Server, Change> pending = new ConcurrentHashMap<>();
+
+    // When the oldest pending change happened in milliseconds, 0 if none
+    private final AtomicLong oldest = new AtomicLong();
+
+    private DatagramChannel channel;
+
+    private ScheduledExecutorService sender;
+
+    private Thread receiver;
+
+    private int nextSyncPeer;
+
+    // Last sequence we sent, only used on the sender thread
+    private long sequence;
+
+    // Last sequence taken from each peer, only used on the receiver thread
+    private final Map<SocketAddress, Long> received = new HashMap<>();
+
+    /**
+     * @param serverList the registry to keep in sync
+     * @param metrics where traffic and delays are counted
+     * @param bind UDP address and port to listen on
+     * @param peers every other node of the cluster
+     * @param secret key shared by the whole cluster, null to not sign packets
+     */
+    public ClusterGossip(ServerList serverList, Metrics metrics, InetSocketAddress bind, List<InetSocketAddress> peers, byte[] secret) {
+        this.serverList = serverList;
+        this.metrics = metrics;
+        this.peers = peers;
+        this.trusted = new HashSet<>(peers);
+        this.key = secret == null ? null : new SecretKeySpec(secret, MAC_ALGORITHM);
+
+        try {
+            channel = DatagramChannel.open();
+            channel.bind(bind);
+        } catch (IOException ex) {
+            Log.error("ClusterGossip: could not bind to UDP %s", bind);
+            channel = null;
+            return;
+        }
+
+        receiver = new Thread(this::receiveLoop, "ClusterGossip receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "ClusterGossip sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sender.scheduleWithFixedDelay(this::push, PUSH_INTERVAL, PUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        sender.scheduleWithFixedDelay(this::sync, 0, SYNC_INTERVAL, TimeUnit.SECONDS);
+
+        Log.info("ClusterGossip: listening on UDP %s with %d peers%s", bind, peers.size(), key == null ? "" : ", packets are signed");
+    }
+
+    public void stop() {
+        if (sender != null) {
+            sender.shutdownNow();
+        }
+
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                Log.error("ClusterGossip: IOException in channel.close()");
+            }
+        }
+    }
+
+    /**
+     * A server joined or sent a heartbeat to this node
+     */
+    public void heartbeat(Server server) {
+        queue(new Change(HEARTBEAT, server, server.getTime()));
+    }
+
+    /**
+     * A server expired on this node
+     */
+    public void expire(Server server) {
+        queue(new Change(EXPIRE, server, server.getTime()));
+    }
+
+    /**
+     * A server was evicted on this node. Goes out as an expiry no heartbeat
+     * can be newer than, so peers drop it too
+     */
+    public void evict(Server server) {
+        queue(new Change(EXPIRE, server, Long.MAX_VALUE));
+    }
+
+    private void queue(Change change) {
+        oldest.compareAndSet(0, System.currentTimeMillis());
+        pending.put(change.server, change);
+    }
+
+    /**
+     * Sends every pending change to every peer
+     */
+    private void push() {
+        var queued = oldest.getAndSet(0);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        var packets = new PacketWriter(queued == 0 ? System.currentTimeMillis() : queued);
+        for (var change : pending.values()) {
+            // Only take it if nothing newer came in meanwhile, that one goes
+            // out next time
+            if (pending.remove(change.server, change)) {
+                packets.add(change.type, change.server.getAddress().getAddress(), change.server.getNetPort(), change.server.getVersion(), change.time);
+            }
+        }
+
+        for (var packet : packets.finish()) {
+            for (var peer : peers) {
+                send(packet, peer);
+            }
+        }
+    }
+
+    /**
+     * Sends the whole registry to the next peer
+     */
+    private void sync() {
+        if (peers.isEmpty()) {
+            return;
+        }
+
+        var packets = new PacketWriter(0);
+        serverList.forEach((ip, netPort, version, time) -> packets.add(HEARTBEAT, ip, netPort, version, time));
+
+        var peer = peers.get(nextSyncPeer++ % peers.size());
+        for (var packet : packets.finish()) {
+            send(packet, peer);
+        }
+    }
+
+    private void send(ByteBuffer packet, SocketAddress peer) {
+        try {
+            var length = channel.send(packet.duplicate(), peer);
+            metrics.onGossipSent(length);
+        } catch (IOException ex) {
+            Log.warn("ClusterGossip: could not send to %s", peer);
+        }
+    }
+
+    /**
+     * @return a Mac for key, null if packets are not signed. Mac is not
+     * thread safe, so the sender and the receiver each get their own
+     */
+    private Mac newMac() {
+        if (key == null) {
+            return null;
+        }
+
+        try {
+            var mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            // Every JRE has HmacSHA256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return the mac of length bytes of packet from its start
+     */
+    private static byte[] sign(Mac mac, ByteBuffer packet, int length) {
+        mac.update(packet.array(), 0, length);
+        var full = mac.doFinal();
+
+        var truncated = new byte[MAC_LEN];
+        System.arraycopy(full, 0, truncated, 0, MAC_LEN);
+        return truncated;
+    }
+
+    /**
+     * @return a sequence above every one sent before, close to the time in
+     * microseconds
+     */
+    private long nextSequence() {
+        sequence = Math.max(sequence + 1, System.currentTimeMillis() * 1000L);
+        return sequence;
+    }
+
+    /**
+     * Splits records into packets of at most MAX_RECORDS each
+     */
+    private class PacketWriter {
+
+        private final long queued;
+
+        // Only ever used on the sender thread
+        private final Mac mac = newMac();
+
+        private final List<ByteBuffer> packets = new ArrayList<>();
+
+        private ByteBuffer current;
+
+        private int count;
+
+        private PacketWriter(long queued) {
+            this.queued = queued;
+        }
+
+        private void add(byte type, byte[] address, short netPort, int version, long time) {
+            // The list reply only has room for IPv4
+            if (address.length == 4) {
+                add(type, Utils.bytesToInt(address), netPort, version, time);
+            }
+        }
+
+        private void add(byte type, int ip, short netPort, int version, long time) {
+            if (current == null || count == MAX_RECORDS) {
+                finishCurrent();
+                current = ByteBuffer.allocate(MAX_PACKET_LEN).order(ByteOrder.LITTLE_ENDIAN);
+                current.putInt(MAGIC).putInt(FORMAT).putLong(node).putLong(0).putLong(queued).putShort((short) 0);
+            }
+
+            current.put(type).putInt(ip).putShort(netPort).putInt(version).putLong(time);
+            ++count;
+        }
+
+        private void finishCurrent() {
+            if (current != null) {
+                current.putShort(HEADER_LEN - 2, (short) count);
+                current.putLong(SEQUENCE_OFFSET, nextSequence());
+                if (mac != null) {
+                    current.put(sign(mac, current, current.position()));
+                }
+                current.flip();
+                packets.add(current);
+            }
+
+            current = null;
+            count = 0;
+        }
+
+        private List<ByteBuffer> finish() {
+            finishCurrent();
+            return packets;
+        }
+    }
+
+    private void receiveLoop() {
+        var packet = ByteBuffer.allocate(MAX_PACKET_LEN).order(ByteOrder.LITTLE_ENDIAN);
+        var mac = newMac();
+
+        while (true) {
+            SocketAddress from;
+            try {
+                packet.clear();
+                from = channel.receive(packet);
+            } catch (ClosedChannelException ex) {
+                return;
+            } catch (IOException ex) {
+                Log.error("ClusterGossip: IOException in channel.receive()");
+                continue;
+            }
+
+            if (!trusted.contains(from)) {
+                Log.debug("ClusterGossip: dropping a packet from %s, not a peer", from);
+                metrics.onGossipDropped();
+                continue;
+            }
+
+            packet.flip();
+            if (mac != null && !verify(mac, packet)) {
+                Log.warn("ClusterGossip: dropping a packet from %s with a bad signature", from);
+                metrics.onGossipDropped();
+                continue;
+            }
+
+            try {
+                handlePacket(packet, from);
+            } catch (BufferUnderflowException ex) {
+                Log.warn("ClusterGossip: packet from %s is cut short", from);
+            }
+        }
+    }
+
+    /**
+     * Checks the mac at the end of packet and cuts it off
+     */
+    private static boolean verify(Mac mac, ByteBuffer packet) {
+        var length = packet.limit() - MAC_LEN;
+        if (length < HEADER_LEN) {
+            return false;
+        }
+
+        var expected = sign(mac, packet, length);
+        var actual = new byte[MAC_LEN];
+        packet.get(length, actual);
+
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return false;
+        }
+
+        packet.limit(length);
+        return true;
+    }
+
+    /**
+     * @return true if a signed packet with this sequence from peer is neither
+     * stale nor seen before
+     */
+    private boolean isFresh(SocketAddress from, long sequence) {
+        if (key == null) {
+            return true;
+        }
+
+        if (Math.abs(System.currentTimeMillis() - sequence / 1000L) > REPLAY_WINDOW) {
+            return false;
+        }
+
+        var last = received.get(from);
+        if (last != null && sequence <= last) {
+            return false;
+        }
+
+        received.put(from, sequence);
+        return true;
+    }
+
+    private void handlePacket(ByteBuffer packet, SocketAddress from) {
+        var length = packet.remaining();
+        if (packet.getInt() != MAGIC || packet.getInt() != FORMAT || packet.getLong() == node) {
+            return;
+        }
+
+        if (!isFresh(from, packet.getLong())) {
+            Log.debug("ClusterGossip: dropping a stale or replayed packet from %s", from);
+            metrics.onGossipDropped();
+            return;
+        }
+
+        var queued = packet.getLong();
+        var count = packet.getShort() & 0xFFFF;
+
+        for (var i = 0; i < count; ++i) {
+            var type = packet.get();
+            var server = RegistryJournal.readEntry(packet);
+            if (server == null) {
+                continue;
+            }
+
+            if (type == HEARTBEAT) {
+                serverList.mergeServer(server);
+            } else if (type == EXPIRE) {
+                serverList.removeServer(server, server.getTime());
+            }
+        }
+
+        var delay = queued == 0 ? -1 : Math.max(0, System.currentTimeMillis() - queued) * 1_000_000L;
+        metrics.onGossipReceived(length, delay);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Hashed timer wheel with one slot per second. A server sits in the slot of
+ * the second it would expire at if it never heartbeats again. When that slot
+ * comes up we either expire it or, if it heartbeated in the meantime, move it
+ * to the slot of its new deadline. Each server is looked at about once per
+ * timeout no matter how often it heartbeats.
+ *
+ * @author Diamante
+ */
+public class ExpiryWheel {
+
+    private final Queue<Server>[] slots;
+
+    private final int mask;
+
+    private final long timeout;
+
+    // Returns true if the server was actually removed
+    private final Predicate<Server> expire;
+
+    // Last second we processed
+    private volatile long current;
+
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong rescheduled = new AtomicLong();
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong tickNanos = new AtomicLong();
+
+    /**
+     * @param timeout seconds without a heartbeat before a server expires
+     * @param expire removes the server from the list, returns false if it was
+     * already gone
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ExpiryWheel(long timeout, Predicate<Server> expire) {
+        // Deadlines are at most timeout + 1 seconds away, round up to a power
+        // of two so we can mask instead of mod
+        var size = Integer.highestOneBit((int) timeout + 1) << 1;
+
+        slots = new Queue[size];
+        for (var i = 0; i < size; ++i) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        this.mask = size - 1;
+        this.timeout = timeout;
+        this.expire = expire;
+        this.current = System.currentTimeMillis() / 1000L;
+    }
+
+    /**
+     * Starts tracking a server that just joined the list
+     *
+     * @param server the server
+     */
+    public void schedule(Server server) {
+        // Never schedule into a slot we already went past, it would only come
+        // up again after a full turn
+        var deadline = Math.max(server.getTime() + timeout + 1, current + 1);
+        slots[slotOf(deadline)].add(server);
+    }
+
+    private int slotOf(long second) {
+        return (int) (second & mask);
+    }
+
+    /**
+     * Processes every slot up to now. Only one thread may call this
+     *
+     * @param now the current time in seconds
+     */
+    public void tick(long now) {
+        var start = System.nanoTime();
+
+        // If we fell behind by more than a full turn every slot is due anyway
+        var from = Math.max(current + 1, now - mask);
+
+        for (var second = from; second <= now; ++second) {
+            drain(slots[slotOf(second)], now);
+        }
+
+        current = Math.max(current, now);
+
+        ticks.incrementAndGet();
+        tickNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    private void drain(Queue<Server> slot, long now) {
+        // Only look at what is in the slot right now, reschedules may land in
+        // the same slot after a full turn
+        for (var count = slot.size(); count > 0; --count) {
+            var server = slot.poll();
+            if (server == null) {
+                return;
+            }
+
+            if (now - server.getTime() > timeout) {
+                if (expire.test(server)) {
+                    expired.incrementAndGet();
+                }
+            } else {
+                slots[slotOf(server.getTime() + timeout + 1)].add(server);
+                rescheduled.incrementAndGet();
+            }
+        }
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    public long getRescheduled() {
+        return rescheduled.get();
+    }
+
+    public long getTicks() {
+        return ticks.get();
+    }
+
+    public long getTickNanos() {
+        return tickNanos.get();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Puts one packet back together from however many reads it arrives in. The
+ * magic tells how long the packet is, so the decoder first asks for the 4
+ * bytes of the magic and then for exactly the rest of the packet, never for
+ * more. Whatever the peer sends after that is never read.
+ *
+ * One instance per connection. Read into buffer() and call update() after
+ * every read.
+ *
+ * @author Diamante
+ */
+public class FrameDecoder {
+
+    private static final int MAGIC_LEN = 4;
+
+    private static final int MAX_FRAME_LEN = Math.max(Utils.PACKET_CLIENT_LEN, Utils.PACKET_SERVERT_LEN);
+
+    private final ByteBuffer frame = ByteBuffer.allocate(MAX_FRAME_LEN);
+
+    private boolean complete;
+
+    public FrameDecoder() {
+        frame.limit(MAGIC_LEN);
+    }
+
+    /**
+     * @return where the next bytes go, its remaining() is how many more the
+     * packet needs
+     */
+    public ByteBuffer buffer() {
+        return frame;
+    }
+
+    /**
+     * Must be called after every read into buffer()
+     *
+     * @return true once the whole packet is in
+     */
+    public boolean update() {
+        if (!complete && frame.limit() == MAGIC_LEN && frame.position() == MAGIC_LEN) {
+            frame.limit(Utils.frameLength(PacketCodec.magic(frame.array())));
+        }
+
+        complete = frame.position() == frame.limit() && frame.limit() > MAGIC_LEN;
+        return complete;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the bytes read so far, starting at 0
+     */
+    public byte[] array() {
+        return frame.array();
+    }
+
+    /**
+     * @return how many bytes of array() were read so far
+     */
+    public int length() {
+        return frame.position();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.Inet4Address;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Default store. One Server object per entry in a ConcurrentHashMap, expired
+ * by an ExpiryWheel.
+ *
+ * @author Diamante
+ */
+public class HashServerStore implements ServerStore {
+
+    // Server only looks at address, net_port and version for equality so a
+    // heartbeat can find the registered instance in constant time
+    private final ConcurrentMap<Server, Server> servers;
+
+    private final ExpiryWheel expiry;
+
+    private final long timeout;
+
+    private final Consumer<Server> onExpire;
+
+    /**
+     * @param timeout seconds without a heartbeat before a server expires
+     * @param onExpire called after a server was removed because of inactivity
+     */
+    public HashServerStore(long timeout, Consumer<Server> onExpire) {
+        this.servers = new ConcurrentHashMap<>();
+        this.expiry = new ExpiryWheel(timeout, server -> expire(server, System.currentTimeMillis() / 1000L));
+        this.timeout = timeout;
+        this.onExpire = onExpire;
+    }
+
+    public ExpiryWheel getExpiry() {
+        return expiry;
+    }
+
+    @Override
+    public boolean upsert(Server server) {
+        // putIfAbsent is atomic so two concurrent heartbeats from the same
+        // server can't both end up in the list
+        var other = servers.putIfAbsent(server, server);
+        if (other == null) {
+            expiry.schedule(server);
+            return true;
+        }
+
+        other.updateTime();
+        return false;
+    }
+
+    @Override
+    public boolean refresh(Server server) {
+        var other = servers.get(server);
+        if (other == null) {
+            return false;
+        }
+
+        // Update the time so we don't accidentally remove the server
+        other.updateTime();
+        return true;
+    }
+
+    @Override
+    public boolean contains(Server server) {
+        return servers.containsKey(server);
+    }
+
+    @Override
+    public boolean merge(Server server) {
+        var other = servers.putIfAbsent(server, server);
+        if (other == null) {
+            expiry.schedule(server);
+            return true;
+        }
+
+        // Racing with a heartbeat at worst keeps the older of two recent times
+        if (server.getTime() > other.getTime()) {
+            other.setTime(server.getTime());
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean remove(Server server, long time) {
+        // The wheel still holds the instance, expire() skips it once it is gone
+        var removed = new boolean[1];
+
+        servers.computeIfPresent(server, (key, value) -> {
+            if (value.getTime() <= time) {
+                removed[0] = true;
+                return null;
+            }
+
+            return value;
+        });
+
+        return removed[0];
+    }
+
+    @Override
+    public void tick(long now) {
+        expiry.tick(now);
+    }
+
+    @Override
+    public void removeInactive(long now) {
+        for (var server : servers.values()) {
+            expire(server, now);
+        }
+    }
+
+    /**
+     * Removes server if it is still the registered instance and it did not
+     * heartbeat in the meantime
+     *
+     * @param server the server to remove
+     * @param now the current time in seconds
+     * @return true if it was removed
+     */
+    private boolean expire(Server server, long now) {
+        var removed = new boolean[1];
+
+        servers.computeIfPresent(server, (key, value) -> {
+            if (value == server && now - value.getTime() > timeout) {
+                removed[0] = true;
+                return null;
+            }
+
+            return value;
+        });
+
+        if (removed[0]) {
+            onExpire.accept(server);
+        }
+
+        return removed[0];
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        for (var server : servers.values()) {
+            // The list reply only has room for IPv4
+            if (server.getAddress() instanceof Inet4Address) {
+                visitor.visit(Utils.bytesToInt(server.getAddress().getAddress()), server.getNetPort(), server.getVersion(), server.getTime());
+            }
+        }
+    }
+
+    @Override
+    public Collection<Server> servers() {
+        return Collections.unmodifiableCollection(servers.values());
+    }
+
+    @Override
+    public int size() {
+        return servers.size();
+    }
+}
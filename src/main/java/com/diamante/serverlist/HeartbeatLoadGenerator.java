@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress test for a master server. Emulates many game servers at once, each
+ * heartbeat is its own connection like the real game does, or a single
+ * datagram for a master that takes heartbeats over UDP. Every emulated
+ * server has its own net_port so each one shows up as a distinct entry.
+ * Over UDP each one answers the challenge of the master before it is
+ * listed, see UdpHeartbeatListener.
+ *
+ * @author Diamante
+ */
+public class HeartbeatLoadGenerator {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final InetSocketAddress target;
+
+    private final int connections;
+
+    // Heartbeats per second over all connections
+    private final double rate;
+
+    // Seconds
+    private final long duration;
+
+    private final boolean udp;
+
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    private final LongAdder sent = new LongAdder();
+
+    private final LongAdder connectErrors = new LongAdder();
+
+    private final LongAdder writeErrors = new LongAdder();
+
+    /**
+     * @param target the master server
+     * @param connections how many game servers to emulate at once
+     * @param rate heartbeats per second over all of them, 0 for as fast as
+     * possible
+     * @param duration seconds to run for
+     */
+    public HeartbeatLoadGenerator(InetSocketAddress target, int connections, double rate, long duration) {
+        this(target, connections, rate, duration, false);
+    }
+
+    /**
+     * @param udp send every heartbeat as a datagram instead of over its own
+     * connection
+     */
+    public HeartbeatLoadGenerator(InetSocketAddress target, int connections, double rate, long duration, boolean udp) {
+        this.target = target;
+        this.connections = connections;
+        this.rate = rate;
+        this.duration = duration;
+        this.udp = udp;
+    }
+
+    public void run() {
+        Log.info("HeartbeatLoadGenerator: %d servers, %s to %s over %s for %d s",
+                connections, rate > 0 ? String.format("%.0f heartbeats/s", rate) : "closed loop", target, udp ? "UDP" : "TCP", duration);
+
+        var start = System.nanoTime();
+        var end = start + duration * 1000000000L;
+
+        var threads = new ArrayList<Thread>();
+        for (var i = 0; i < connections; ++i) {
+            var index = i;
+            var thread = new Thread(() -> emulate(index, start, end), "HeartbeatLoadGenerator-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        var lastSent = 0L;
+        while (System.nanoTime() < end && Main.running.get()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            var total = sent.sum();
+            Log.info("HeartbeatLoadGenerator: %d/s, %d errors", total - lastSent, connectErrors.sum() + writeErrors.sum());
+            lastSent = total;
+        }
+
+        for (var thread : threads) {
+            try {
+                thread.join(CONNECT_TIMEOUT);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Sends heartbeats for one game server at rate / connections per second
+     */
+    private void emulate(int index, long start, long end) {
+        // Ports start at the usual net_port so the list looks realistic
+        var port = (short) (27016 + index);
+        var request = new byte[Utils.PACKET_SERVERT_LEN];
+        PacketCodec.writeHeartbeat(request, Utils.CLIENT_VERSION, port);
+
+        // Open loop, we don't slow down if the master does. Without a rate
+        // every connection sends as fast as the master lets it
+        var interval = rate > 0 ? (long) (connections * 1e9 / rate) : 0;
+        // Spread the first heartbeats over one interval
+        var next = start + (long) (interval * (index / (double) connections));
+
+        DatagramChannel channel = null;
+        if (udp) {
+            try {
+                // Connected so only datagrams from the master come in
+                channel = DatagramChannel.open();
+                channel.connect(target);
+                channel.configureBlocking(false);
+            } catch (IOException ex) {
+                connectErrors.increment();
+                close(channel);
+                return;
+            }
+        }
+
+        try {
+            emulate(request, channel, next, interval, end);
+        } finally {
+            close(channel);
+        }
+    }
+
+    private static void close(DatagramChannel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Log.error("HeartbeatLoadGenerator: IOException in channel.close()");
+        }
+    }
+
+    private void emulate(byte[] request, DatagramChannel channel, long next, long interval, long end) {
+        while (Main.running.get()) {
+            var now = System.nanoTime();
+            if (now >= end || next >= end) {
+                return;
+            }
+
+            if (next > now) {
+                try {
+                    Thread.sleep((next - now) / 1000000L, (int) ((next - now) % 1000000L));
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+
+            next += interval;
+            if (channel != null) {
+                heartbeat(channel, request);
+            } else {
+                heartbeat(request);
+            }
+        }
+    }
+
+    private void heartbeat(DatagramChannel channel, byte[] request) {
+        var before = System.nanoTime();
+
+        try {
+            answerChallenges(channel, request);
+            channel.write(ByteBuffer.wrap(request));
+        } catch (IOException ex) {
+            writeErrors.increment();
+            return;
+        }
+
+        writeLatency.record(System.nanoTime() - before);
+        sent.increment();
+    }
+
+    /**
+     * Joins with the cookie of every challenge that came in since the last
+     * heartbeat. Never waits for one, the next heartbeat looks again
+     */
+    private void answerChallenges(DatagramChannel channel, byte[] request) throws IOException {
+        var in = ByteBuffer.allocate(UdpHeartbeatListener.CHALLENGE_LEN + 1).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (channel.read(in.clear()) > 0) {
+            if (in.position() != UdpHeartbeatListener.CHALLENGE_LEN || in.getInt(0) != UdpHeartbeatListener.CHALLENGE_MAGIC) {
+                continue;
+            }
+
+            var join = Arrays.copyOf(request, UdpHeartbeatListener.JOIN_LEN);
+            PacketCodec.writeInt(join, Utils.PACKET_SERVERT_LEN, in.getInt(4));
+            channel.write(ByteBuffer.wrap(join));
+        }
+    }
+
+    private void heartbeat(byte[] request) {
+        try (var socket = new Socket()) {
+            var before = System.nanoTime();
+
+            try {
+                socket.connect(target, CONNECT_TIMEOUT);
+            } catch (IOException ex) {
+                connectErrors.increment();
+                return;
+            }
+
+            var connected = System.nanoTime();
+            connectLatency.record(connected - before);
+
+            try {
+                socket.getOutputStream().write(request);
+            } catch (IOException ex) {
+                writeErrors.increment();
+                return;
+            }
+
+            writeLatency.record(System.nanoTime() - connected);
+            sent.increment();
+        } catch (IOException ex) {
+            // Only close() can get us here, the heartbeat went out already
+        }
+    }
+
+    private void report(double seconds) {
+        Log.info("HeartbeatLoadGenerator: sent %d heartbeats in %.1f s, %.1f/s", sent.sum(), seconds, sent.sum() / seconds);
+        Log.info("HeartbeatLoadGenerator: connect %s", connectLatency.summary());
+        Log.info("HeartbeatLoadGenerator: write %s", writeLatency.summary());
+        Log.info("HeartbeatLoadGenerator: %d connect errors, %d write errors", connectErrors.sum(), writeErrors.sum());
+    }
+}
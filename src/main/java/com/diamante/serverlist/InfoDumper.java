@@ -16,13 +16,9 @@
  */
 package com.diamante.serverlist;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
-
-import java.nio.charset.StandardCharsets;
-
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
 
 /**
  *
@@ -30,40 +26,76 @@ import org.json.simple.JSONObject;
  */
 public class InfoDumper {
 
-    public static void dumpServerResponse(Server server, byte[] data) {
-        assert data.length == ClientEmulator.SERVER_INFO_SIZE;
+    /**
+     * Leaves the infostring in the reply until the JSON is written out, most
+     * replies are only looked at for a few keys
+     */
+    private static class RawInfo implements JSONAware {
 
-        var magicLE = new byte[4];
+        private final InfoString info;
 
-        var playersLE = new byte[4];
-        var maxPlayersLE = new byte[4];
+        private RawInfo(InfoString info) {
+            this.info = info;
+        }
 
-        var rawDataLE = new byte[2048];
+        @Override
+        public String toJSONString() {
+            return "\"" + JSONValue.escape(info.toString()) + "\"";
+        }
 
-        System.arraycopy(data, 0, magicLE, 0, 4);
-        System.arraycopy(data, 8, playersLE, 0, 4);
-        System.arraycopy(data, 12, maxPlayersLE, 0, 4);
+        @Override
+        public String toString() {
+            return info.toString();
+        }
+    }
 
-        System.arraycopy(data, 81, rawDataLE, 0, 2048);
+    /**
+     * Queues the reply for ProbeResultSink, the file is written in the
+     * background
+     *
+     * @return the reply as JSON
+     */
+    @SuppressWarnings("unchecked") // JSONObject is a raw HashMap
+    public static JSONObject dumpServerResponse(Server server, byte[] data) {
+        var obj = parseServerResponse(server, data);
+        obj.put("time", System.currentTimeMillis());
 
-        var playersBE = Utils.longSwap(playersLE);
-        var maxPlayersBE = Utils.longSwap(maxPlayersLE);
+        ProbeResultSink.shared().append(obj);
+        return obj;
+    }
 
-        System.out.println(String.format("dumpServerResponse: Players %d:%d", playersBE, maxPlayersBE));
+    /**
+     * @param server the server that sent the reply
+     * @param data the reply, ClientEmulator.SERVER_INFO_SIZE bytes long,
+     * must not change afterwards since info is decoded from it lazily
+     * @return the reply as JSON for easier inspection
+     */
+    @SuppressWarnings("unchecked") // JSONObject is a raw HashMap
+    public static JSONObject parseServerResponse(Server server, byte[] data) {
+        assert data.length == ClientEmulator.SERVER_INFO_SIZE;
+
+        var playersBE = PacketCodec.infoPlayers(data);
+        var maxPlayersBE = PacketCodec.infoMaxPlayers(data);
 
-        String infoString = new String(rawDataLE, StandardCharsets.UTF_8);
-        System.out.println(infoString);
+        Log.debug("dumpServerResponse: Players %d:%d", playersBE, maxPlayersBE);
+
+        // Only the part before the NUL padding
+        var info = InfoString.of(data);
+        Log.debug(info::toString);
 
         // Save to JSON for easier inspection
-        var magicBE = Utils.longSwap(magicLE);
+        var magicBE = PacketCodec.magic(data);
 
         var obj = new JSONObject();
         obj.put("server", server.toString());
         obj.put("magic", magicBE);
         obj.put("players", playersBE);
         obj.put("sv_maxClients", maxPlayersBE);
-        obj.put("info", infoString);
-        
-        Utils.saveJSONFile(String.format("stats_%d.json", Math.abs(server.hashCode())), obj);
+        obj.put("hostname", info.hostname());
+        obj.put("mapname", info.map());
+        obj.put("gametype", info.gametype());
+        obj.put("info", new RawInfo(info));
+
+        return obj;
     }
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the infostring of a probe reply where it is, without copying it out
+ * first. The infostring looks like \key\value\key\value and ends at the first
+ * NUL, the padding after it is ignored.
+ *
+ * Nothing is decoded until asked for. Keys are compared byte by byte and
+ * ignoring case like the game does, only the values that are asked for
+ * become Strings. Each instance is meant for one thread but any number of
+ * them can parse different replies at once.
+ *
+ * @author Diamante
+ */
+public class InfoString {
+
+    private static final byte SEPARATOR = '\\';
+
+    // Every server sends the same few keys, no need to keep a copy of each
+    // one per reply. Capped because anybody can make up new keys
+    private static final int MAX_INTERNED_KEYS = 1024;
+
+    private static final Map<String, String> keys = new ConcurrentHashMap<>();
+
+    private final byte[] data;
+
+    private final int offset;
+
+    // Index of the first NUL or the end of the region
+    private final int end;
+
+    // Start and end of every key and value, filled in on first use
+    private int[] fields;
+
+    private int count;
+
+    private String hostname;
+
+    private String map;
+
+    private String gametype;
+
+    /**
+     * @param data the buffer holding the infostring
+     * @param offset where the infostring starts
+     * @param length bytes the infostring may take up at most
+     */
+    public InfoString(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+
+        var limit = Math.min(offset + length, data.length);
+        var i = offset;
+        while (i < limit && data[i] != 0) {
+            ++i;
+        }
+
+        this.end = i;
+    }
+
+    /**
+     * @param reply a probe reply
+     * @return the infostring of reply
+     */
+    public static InfoString of(byte[] reply) {
+        return new InfoString(reply, PacketCodec.INFO_STRING_OFFSET, PacketCodec.INFO_STRING_LEN);
+    }
+
+    /**
+     * @return bytes before the first NUL
+     */
+    public int length() {
+        return end - offset;
+    }
+
+    private void index() {
+        if (fields != null) {
+            return;
+        }
+
+        fields = new int[32];
+
+        var pos = offset;
+        if (pos < end && data[pos] == SEPARATOR) {
+            ++pos;
+        }
+
+        while (pos < end) {
+            var keyEnd = next(pos);
+            var valueStart = Math.min(keyEnd + 1, end);
+            var valueEnd = next(valueStart);
+
+            if (count * 4 + 4 > fields.length) {
+                fields = Arrays.copyOf(fields, fields.length * 2);
+            }
+
+            fields[count * 4] = pos;
+            fields[count * 4 + 1] = keyEnd;
+            fields[count * 4 + 2] = valueStart;
+            fields[count * 4 + 3] = valueEnd;
+            ++count;
+
+            pos = valueEnd + 1;
+        }
+    }
+
+    private int next(int from) {
+        var i = from;
+        while (i < end && data[i] != SEPARATOR) {
+            ++i;
+        }
+
+        return i;
+    }
+
+    /**
+     * @return the field holding key or -1
+     */
+    private int find(String key) {
+        index();
+
+        for (var field = 0; field < count; ++field) {
+            var start = fields[field * 4];
+            if (fields[field * 4 + 1] - start == key.length() && keyEquals(start, key)) {
+                return field;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean keyEquals(int start, String key) {
+        for (var i = 0; i < key.length(); ++i) {
+            var a = data[start + i];
+            var b = key.charAt(i);
+
+            if (a != b && Character.toLowerCase((char) (a & 0xFF)) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return how many key/value pairs there are
+     */
+    public int size() {
+        index();
+        return count;
+    }
+
+    /**
+     * @return the value of key or null if there is none
+     */
+    public String get(String key) {
+        var field = find(key);
+        if (field < 0) {
+            return null;
+        }
+
+        return decode(fields[field * 4 + 2], fields[field * 4 + 3]);
+    }
+
+    /**
+     * Parses the digits in place
+     *
+     * @return the value of key or fallback if it is missing or not a number
+     */
+    public int getInt(String key, int fallback) {
+        var field = find(key);
+        if (field < 0) {
+            return fallback;
+        }
+
+        var i = fields[field * 4 + 2];
+        var valueEnd = fields[field * 4 + 3];
+        var negative = i < valueEnd && data[i] == '-';
+        if (negative) {
+            ++i;
+        }
+
+        if (i == valueEnd || valueEnd - i > 9) {
+            return fallback;
+        }
+
+        var value = 0;
+        for (; i < valueEnd; ++i) {
+            var digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return fallback;
+            }
+
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    public String hostname() {
+        if (hostname == null) {
+            hostname = get("hostname");
+        }
+
+        return hostname;
+    }
+
+    public String map() {
+        if (map == null) {
+            map = get("mapname");
+        }
+
+        return map;
+    }
+
+    public String gametype() {
+        if (gametype == null) {
+            gametype = get("g_gametype");
+        }
+
+        return gametype;
+    }
+
+    /**
+     * @return the player count the server advertises or -1
+     */
+    public int players() {
+        return getInt("clients", -1);
+    }
+
+    /**
+     * @return the player limit the server advertises or -1
+     */
+    public int maxPlayers() {
+        return getInt("sv_maxclients", -1);
+    }
+
+    /**
+     * @return every pair in the order the server sent them
+     */
+    public Map<String, String> toMap() {
+        index();
+
+        var map = new LinkedHashMap<String, String>(count * 2);
+        for (var field = 0; field < count; ++field) {
+            var key = intern(decode(fields[field * 4], fields[field * 4 + 1]));
+            map.put(key, decode(fields[field * 4 + 2], fields[field * 4 + 3]));
+        }
+
+        return map;
+    }
+
+    private static String intern(String key) {
+        var interned = keys.get(key);
+        if (interned != null) {
+            return interned;
+        }
+
+        if (keys.size() >= MAX_INTERNED_KEYS) {
+            return key;
+        }
+
+        interned = keys.putIfAbsent(key, key);
+        return interned == null ? key : interned;
+    }
+
+    private String decode(int from, int to) {
+        return new String(data, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the raw infostring up to the first NUL
+     */
+    @Override
+    public String toString() {
+        return decode(offset, end);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram. Each power of two is split into 16 buckets
+ * so any recorded value is off by at most about 6%. Safe to record from many
+ * threads while another one reads it.
+ *
+ * @author Diamante
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    // Enough buckets for any positive long
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+
+        var shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        var top = (int) (value >>> shift);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (top - SUB_BUCKETS);
+    }
+
+    /**
+     * @return the largest value that lands in bucket index
+     */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        var shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        var top = (long) ((index - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS);
+        return ((top + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value below which percentile of the recorded values fall
+     */
+    public long getPercentile(double percentile) {
+        var total = 0L;
+        var snapshot = new long[BUCKETS];
+        for (var i = 0; i < BUCKETS; ++i) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        var rank = (long) Math.ceil(total * percentile / 100.0);
+        var seen = 0L;
+        for (var i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= Math.max(rank, 1)) {
+                return upperBoundOf(i);
+            }
+        }
+
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    /**
+     * @param limit upper bound of the bucket
+     * @return how many recorded values are at most limit, rounded to the
+     * bucket limit falls in
+     */
+    public long getCountAtOrBelow(long limit) {
+        var last = indexOf(limit);
+        var total = 0L;
+        for (var i = 0; i <= last; ++i) {
+            total += counts.get(i);
+        }
+
+        return total;
+    }
+
+    /**
+     * @return p50, p99 and p99.9 in milliseconds, assuming values are in
+     * nanoseconds
+     */
+    public String summary() {
+        return String.format("p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms",
+                getPercentile(50) / 1e6, getPercentile(99) / 1e6, getPercentile(99.9) / 1e6);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+/**
+ * Decodes a list reply as it comes in, however it is split across reads.
+ * Whole entries are read straight out of the chunk they arrive in, only an
+ * entry cut in two by the end of a chunk is copied aside until the rest of
+ * it shows up. Nothing ever holds the whole reply.
+ *
+ * @author Diamante
+ */
+public class ListReplyDecoder {
+
+    /**
+     * Called for each entry in the order of the reply
+     */
+    public interface Visitor {
+
+        /**
+         * @param ip IPv4 address in BE
+         */
+        void visit(int ip, short netPort);
+    }
+
+    private final Visitor visitor;
+
+    // The header or an entry split across two chunks
+    private final byte[] partial = new byte[Math.max(PacketCodec.LIST_HEADER_LEN, PacketCodec.LIST_ENTRY_LEN)];
+
+    private int partialLength;
+
+    private boolean header;
+
+    private int count;
+
+    private int entries;
+
+    // Bytes past the last entry the header announced
+    private long trailing;
+
+    public ListReplyDecoder(Visitor visitor) {
+        this.visitor = visitor;
+    }
+
+    /**
+     * @param data the next bytes of the reply
+     * @param offset where they start in data
+     * @param length how many there are
+     */
+    public void feed(byte[] data, int offset, int length) {
+        var end = offset + length;
+
+        if (!header) {
+            offset = fill(data, offset, end, PacketCodec.LIST_HEADER_LEN);
+            if (partialLength < PacketCodec.LIST_HEADER_LEN) {
+                return;
+            }
+
+            header = true;
+            count = PacketCodec.listCount(partial);
+            partialLength = 0;
+        }
+
+        if (partialLength > 0) {
+            offset = fill(data, offset, end, PacketCodec.LIST_ENTRY_LEN);
+            if (partialLength < PacketCodec.LIST_ENTRY_LEN) {
+                return;
+            }
+
+            entry(partial, 0);
+            partialLength = 0;
+        }
+
+        while (end - offset >= PacketCodec.LIST_ENTRY_LEN) {
+            entry(data, offset);
+            offset += PacketCodec.LIST_ENTRY_LEN;
+        }
+
+        fill(data, offset, end, PacketCodec.LIST_ENTRY_LEN);
+    }
+
+    /**
+     * Copies up to wanted bytes into partial
+     *
+     * @return the offset after what was copied
+     */
+    private int fill(byte[] data, int offset, int end, int wanted) {
+        var take = Math.min(wanted - partialLength, end - offset);
+        System.arraycopy(data, offset, partial, partialLength, take);
+        partialLength += take;
+        return offset + take;
+    }
+
+    private void entry(byte[] data, int offset) {
+        // A garbage count can be negative, nothing fits then
+        if (entries >= count) {
+            trailing += PacketCodec.LIST_ENTRY_LEN;
+            return;
+        }
+
+        ++entries;
+        visitor.visit(PacketCodec.readInt(data, offset), PacketCodec.readShort(data, offset + 4));
+    }
+
+    /**
+     * @return the count in the header or -1 if the header is not in yet
+     */
+    public int getCount() {
+        return header ? count : -1;
+    }
+
+    /**
+     * @return how many entries were decoded so far
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return true once as many entries as the header says are in
+     */
+    public boolean isComplete() {
+        return header && entries == count;
+    }
+
+    /**
+     * Must only be asked once the peer is done sending
+     *
+     * @return true if the reply held exactly what its header says
+     */
+    public boolean isValid() {
+        return isComplete() && partialLength == 0 && trailing == 0;
+    }
+}
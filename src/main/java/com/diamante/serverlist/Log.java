@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Leveled logging that stays off the hot path. Callers only check the level
+ * and queue a record, formatting and writing happen on a background thread.
+ * When the queue is full the record is dropped and counted instead of making
+ * the caller wait.
+ *
+ * Arguments and suppliers are only looked at later on the writer thread, so
+ * they must not be changed after the call.
+ *
+ * Debug and Info go to stdout, Warn and Error to stderr.
+ *
+ * @author Diamante
+ */
+public class Log {
+
+    public enum Level {
+        Debug, Info, Warn, Error, Off;
+    }
+
+    private static final int CAPACITY = 1 << 16;
+
+    // Records written out in one go before we flush
+    private static final int BATCH_SIZE = 1024;
+
+    // How long the writer sleeps when there is nothing to write
+    private static final long IDLE_WAIT = 5000000L;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    // Padded so the messages line up
+    private static final String[] LABELS = {"DEBUG", "INFO ", "WARN ", "ERROR"};
+
+    private static class Record {
+
+        private final Level level;
+
+        private final long time;
+
+        private final String format;
+
+        private final Object[] args;
+
+        private final Supplier<String> message;
+
+        private Record(Level level, String format, Object[] args, Supplier<String> message) {
+            this.level = level;
+            this.time = System.currentTimeMillis();
+            this.format = format;
+            this.args = args;
+            this.message = message;
+        }
+
+        private String message() {
+            if (message != null) {
+                return message.get();
+            }
+
+            if (args == null || args.length == 0) {
+                return format;
+            }
+
+            return String.format(format, args);
+        }
+    }
+
+    private static volatile Level level = Level.Debug;
+
+    // The queue itself is unbounded, size keeps it under CAPACITY
+    private static final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+
+    private static final AtomicInteger size = new AtomicInteger();
+
+    private static final LongAdder dropped = new LongAdder();
+
+    private static long reportedDrops;
+
+    static {
+        var writer = new Thread(Log::writeLoop, "Log writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        // Don't lose the last records, they are usually the interesting ones
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Log flush"));
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level != Level.Off && level.compareTo(Log.level) >= 0;
+    }
+
+    /**
+     * @return how many records were dropped because the queue was full
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    public static void debug(String format, Object... args) {
+        log(Level.Debug, format, args, null);
+    }
+
+    public static void debug(Supplier<String> message) {
+        log(Level.Debug, null, null, message);
+    }
+
+    public static void info(String format, Object... args) {
+        log(Level.Info, format, args, null);
+    }
+
+    public static void info(Supplier<String> message) {
+        log(Level.Info, null, null, message);
+    }
+
+    public static void warn(String format, Object... args) {
+        log(Level.Warn, format, args, null);
+    }
+
+    public static void warn(Supplier<String> message) {
+        log(Level.Warn, null, null, message);
+    }
+
+    public static void error(String format, Object... args) {
+        log(Level.Error, format, args, null);
+    }
+
+    public static void error(Supplier<String> message) {
+        log(Level.Error, null, null, message);
+    }
+
+    private static void log(Level level, String format, Object[] args, Supplier<String> message) {
+        if (!isEnabled(level)) {
+            return;
+        }
+
+        if (size.incrementAndGet() > CAPACITY) {
+            size.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+
+        queue.offer(new Record(level, format, args, message));
+    }
+
+    /**
+     * Writes out everything queued so far. The writer thread does this on its
+     * own, only call it if the output is needed right now
+     */
+    public static void flush() {
+        while (write()) {
+            // Keep going until the queue is empty
+        }
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            if (!write()) {
+                LockSupport.parkNanos(IDLE_WAIT);
+            }
+        }
+    }
+
+    /**
+     * @return false if there was nothing to write
+     */
+    private static synchronized boolean write() {
+        var out = new StringBuilder();
+        var err = new StringBuilder();
+
+        var count = 0;
+        Record record;
+        while (count < BATCH_SIZE && (record = queue.poll()) != null) {
+            size.decrementAndGet();
+            ++count;
+
+            var line = record.level.compareTo(Level.Warn) >= 0 ? err : out;
+            line.append(TIME.format(Instant.ofEpochMilli(record.time))).append(' ');
+            line.append(LABELS[record.level.ordinal()]).append(' ');
+
+            try {
+                line.append(record.message());
+            } catch (RuntimeException ex) {
+                line.append("Log: could not format ").append(record.format);
+            }
+
+            line.append(System.lineSeparator());
+        }
+
+        var drops = dropped.sum();
+        if (drops > reportedDrops) {
+            err.append(String.format("Log: dropped %d records, the queue was full%n", drops - reportedDrops));
+            reportedDrops = drops;
+        }
+
+        // One write per stream and batch instead of one per line
+        if (out.length() > 0) {
+            System.out.print(out);
+            System.out.flush();
+        }
+
+        if (err.length() > 0) {
+            System.err.print(err);
+            System.err.flush();
+        }
+
+        return count > 0;
+    }
+}
@@ -16,6 +16,16 @@
  */
 package com.diamante.serverlist;
 
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.cli.DefaultParser;
@@ -38,7 +48,7 @@ public class Main {
 
     public static final AtomicBoolean running = new AtomicBoolean(true);
 
-    private MasterServer server;
+    private MasterServerEngine server;
 
     public Main() {
         mode = Mode.Bad;
@@ -52,12 +62,28 @@ public class Main {
         this.mode = mode;
     }
 
-    public MasterServer getServer() {
+    public MasterServerEngine getServer() {
         return server;
     }
 
-    private void createMasterServer() {
-        server = new MasterServer();
+    private boolean createMasterServer(MasterConfig config) {
+        var handler = new PacketHandler(config);
+
+        switch (config.getEngine()) {
+            case "blocking":
+                server = new MasterServer(handler);
+                return true;
+            case "nio":
+                server = new NioMasterServer(handler);
+                return true;
+            case "virtual":
+                server = new VirtualThreadMasterServer(handler, config.getMaxConnections());
+                return true;
+            default:
+                Log.error("Unknown engine %s", config.getEngine());
+                handler.stop();
+                return false;
+        }
     }
 
     private Options createOptions() {
@@ -81,6 +107,173 @@ public class Main {
                 .desc("Servers to ping")
                 .build();
 
+        var engine = Option.builder("engine")
+                .argName("blocking|nio|virtual")
+                .hasArg()
+                .desc("How the master server handles connections (default: blocking)")
+                .build();
+
+        var maxConnections = Option.builder("max_connections")
+                .argName("count")
+                .hasArg()
+                .desc("Connections the virtual engine handles at once, at most " + VirtualThreadMasterServer.PLATFORM_MAX_CONNECTIONS + " without virtual threads")
+                .build();
+
+        var readTimeout = Option.builder("read_timeout")
+                .argName("milliseconds")
+                .hasArg()
+                .desc("How long a connection has to send its packet (default: " + MasterConfig.DEFAULT_READ_TIMEOUT + ")")
+                .build();
+
+        var writeTimeout = Option.builder("write_timeout")
+                .argName("milliseconds")
+                .hasArg()
+                .desc("How long a connection has to take the whole reply (default: " + MasterConfig.DEFAULT_WRITE_TIMEOUT + ")")
+                .build();
+
+        var pageSize = Option.builder("page_size")
+                .argName("entries")
+                .hasArg()
+                .desc("Build list replies in pages of this many servers instead of one array")
+                .build();
+
+        var registry = Option.builder("registry")
+                .argName("hash|packed")
+                .hasArg()
+                .desc("How the master server stores registered servers (default: hash)")
+                .build();
+
+        var maxServers = Option.builder("max_servers")
+                .argName("count")
+                .hasArg()
+                .desc("Servers on the list at most, 0 for no cap (default: " + RegistryLimits.DEFAULT_MAX_SERVERS + ")")
+                .build();
+
+        var maxServersPerIp = Option.builder("max_servers_per_ip")
+                .argName("count")
+                .hasArg()
+                .desc("Servers on the list with the same address at most, 0 for no cap (default: "
+                        + RegistryLimits.DEFAULT_MAX_SERVERS_PER_ADDRESS + ")")
+                .build();
+
+        var registryFile = Option.builder("registry_file")
+                .argName("<prefix>")
+                .hasArg()
+                .desc("Keep the registry in <prefix>.snapshot and <prefix>.journal and restore it on startup")
+                .build();
+
+        var probeInterval = Option.builder("probe_interval")
+                .argName("seconds")
+                .hasArg()
+                .desc("Minimum time between two scans of the registered servers, 0 disables them")
+                .build();
+
+        var probeCacheTtl = Option.builder("probe_cache_ttl")
+                .argName("seconds")
+                .hasArg()
+                .desc("How long a probe result is reused before the server is probed again, 0 disables it")
+                .build();
+
+        var probeOutput = Option.builder("probe_output")
+                .argName("<filename>")
+                .hasArg()
+                .desc("File the probe results are appended to (default: " + ProbeResultSink.DEFAULT_PATH + ")")
+                .build();
+
+        var port = Option.builder("port")
+                .argName("port")
+                .hasArg()
+                .desc("TCP port the master server listens on (default: " + MasterServer.PORT + ")")
+                .build();
+
+        var udpPort = Option.builder("udp_port")
+                .argName("port")
+                .hasArg()
+                .desc("Also take heartbeats as UDP datagrams on this port")
+                .build();
+
+        var udp = Option.builder("udp")
+                .desc("Load test: send heartbeats as UDP datagrams")
+                .build();
+
+        var gossipPort = Option.builder("gossip_port")
+                .argName("port")
+                .hasArg()
+                .desc("UDP port the master server gossips with its peers on (default: " + ClusterGossip.DEFAULT_PORT + ")")
+                .build();
+
+        var gossipAddress = Option.builder("gossip_address")
+                .argName("ip")
+                .hasArg()
+                .desc("Address the gossip port is bound to (default: every interface)")
+                .build();
+
+        var gossipSecretFile = Option.builder("gossip_secret_file")
+                .argName("path")
+                .hasArg()
+                .desc("File with a secret shared by the whole cluster, gossip packets without a matching signature are dropped")
+                .build();
+
+        var peers = Option.builder("peers")
+                .argName("host:port,...")
+                .hasArg()
+                .desc("Gossip ports of every other master server of the cluster")
+                .build();
+
+        var connectionRate = Option.builder("connection_rate")
+                .argName("per second")
+                .hasArg()
+                .desc("Connections one address may open, 0 for no limit (default: " + AdmissionControl.DEFAULT_CONNECTION_RATE + ")")
+                .build();
+
+        var heartbeatRate = Option.builder("heartbeat_rate")
+                .argName("per second")
+                .hasArg()
+                .desc("Heartbeats one address may send, 0 for no limit (default: " + AdmissionControl.DEFAULT_HEARTBEAT_RATE + ")")
+                .build();
+
+        var queryRate = Option.builder("query_rate")
+                .argName("per second")
+                .hasArg()
+                .desc("List queries one address may send, 0 for no limit (default: " + AdmissionControl.DEFAULT_QUERY_RATE + ")")
+                .build();
+
+        var metricsPort = Option.builder("metrics_port")
+                .argName("port")
+                .hasArg()
+                .desc("Serve Prometheus metrics of the master server over HTTP on this port")
+                .build();
+
+        var logLevel = Option.builder("log_level")
+                .argName("debug|info|warn|error|off")
+                .hasArg()
+                .desc("Least severe messages to log (default: debug)")
+                .build();
+
+        var target = Option.builder("target")
+                .argName("host[:port]")
+                .hasArg()
+                .desc("Master server to send heartbeats or queries to (default: the official one)")
+                .build();
+
+        var connections = Option.builder("connections")
+                .argName("count")
+                .hasArg()
+                .desc("Load test: game servers or clients to emulate at once")
+                .build();
+
+        var rate = Option.builder("rate")
+                .argName("per second")
+                .hasArg()
+                .desc("Load test: target rate over all connections (default: closed loop)")
+                .build();
+
+        var duration = Option.builder("duration")
+                .argName("seconds")
+                .hasArg()
+                .desc("Load test: how long to run for")
+                .build();
+
         options.addOption(master);
         options.addOption(emulator);
         options.addOption(masterPing);
@@ -88,6 +281,34 @@ public class Main {
         options.addOption(dumpReplyFromMaster);
         options.addOption(ping);
         options.addOption(fileList);
+        options.addOption(engine);
+        options.addOption(maxConnections);
+        options.addOption(readTimeout);
+        options.addOption(writeTimeout);
+        options.addOption(pageSize);
+        options.addOption(registry);
+        options.addOption(maxServers);
+        options.addOption(maxServersPerIp);
+        options.addOption(registryFile);
+        options.addOption(probeInterval);
+        options.addOption(probeCacheTtl);
+        options.addOption(probeOutput);
+        options.addOption(port);
+        options.addOption(udpPort);
+        options.addOption(udp);
+        options.addOption(gossipPort);
+        options.addOption(gossipAddress);
+        options.addOption(gossipSecretFile);
+        options.addOption(peers);
+        options.addOption(connectionRate);
+        options.addOption(heartbeatRate);
+        options.addOption(queryRate);
+        options.addOption(metricsPort);
+        options.addOption(logLevel);
+        options.addOption(target);
+        options.addOption(connections);
+        options.addOption(rate);
+        options.addOption(duration);
 
         return options;
     }
@@ -96,8 +317,9 @@ public class Main {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
-                System.out.println("Running shutdown hook");
+                Log.info("Running shutdown hook");
                 running.compareAndSet(true, false);
+                Log.flush();
             }
         });
 
@@ -105,7 +327,13 @@ public class Main {
         var options = main.createOptions();
         var ip = new String();
         var fileList = new String();
+        var config = new MasterConfig();
+        String target = null;
+        int connections = 0;
+        double rate = 0;
+        long duration = 30;
         boolean dumpReply = false;
+        boolean udp = false;
 
         var parser = new DefaultParser();
         try {
@@ -131,15 +359,147 @@ public class Main {
             if (line.hasOption("file_list")) {
                 fileList = line.getOptionValue("file_list");
             }
+
+            if (line.hasOption("engine")) {
+                config.setEngine(line.getOptionValue("engine"));
+            }
+
+            if (line.hasOption("max_connections")) {
+                config.setMaxConnections(Integer.parseInt(line.getOptionValue("max_connections")));
+            }
+
+            if (line.hasOption("read_timeout")) {
+                config.setReadTimeout(Long.parseLong(line.getOptionValue("read_timeout")));
+            }
+
+            if (line.hasOption("write_timeout")) {
+                config.setWriteTimeout(Long.parseLong(line.getOptionValue("write_timeout")));
+            }
+
+            if (line.hasOption("page_size")) {
+                config.setPageSize(Integer.parseInt(line.getOptionValue("page_size")));
+            }
+
+            if (line.hasOption("registry") && line.getOptionValue("registry").equals("packed")) {
+                config.setStorage(ServerList.Storage.Packed);
+            }
+
+            if (line.hasOption("max_servers")) {
+                config.setMaxServers(Integer.parseInt(line.getOptionValue("max_servers")));
+            }
+
+            if (line.hasOption("max_servers_per_ip")) {
+                config.setMaxServersPerAddress(Integer.parseInt(line.getOptionValue("max_servers_per_ip")));
+            }
+
+            if (line.hasOption("registry_file")) {
+                config.setRegistryFile(line.getOptionValue("registry_file"));
+            }
+
+            if (line.hasOption("probe_interval")) {
+                config.setProbeInterval(Long.parseLong(line.getOptionValue("probe_interval")));
+            }
+
+            if (line.hasOption("probe_cache_ttl")) {
+                config.setProbeCacheTtl(Long.parseLong(line.getOptionValue("probe_cache_ttl")));
+            }
+
+            if (line.hasOption("probe_output")) {
+                ProbeResultSink.setSharedPath(line.getOptionValue("probe_output"));
+            }
+
+            if (line.hasOption("port")) {
+                config.setPort(Integer.parseInt(line.getOptionValue("port")));
+            }
+
+            if (line.hasOption("udp_port")) {
+                config.setUdpPort(Integer.parseInt(line.getOptionValue("udp_port")));
+            }
+
+            if (line.hasOption("udp")) {
+                udp = true;
+            }
+
+            if (line.hasOption("gossip_port")) {
+                config.setGossipPort(Integer.parseInt(line.getOptionValue("gossip_port")));
+            }
+
+            if (line.hasOption("gossip_address")) {
+                config.setGossipAddress(InetAddress.getByName(line.getOptionValue("gossip_address")));
+            }
+
+            if (line.hasOption("gossip_secret_file")) {
+                var secret = Files.readString(Path.of(line.getOptionValue("gossip_secret_file"))).trim();
+                if (secret.isEmpty()) {
+                    throw new IllegalArgumentException("The gossip secret file is empty");
+                }
+                config.setGossipSecret(secret.getBytes(StandardCharsets.UTF_8));
+            }
+
+            if (line.hasOption("peers")) {
+                var peers = new ArrayList<InetSocketAddress>();
+                for (var peer : line.getOptionValue("peers").split(",")) {
+                    var address = Utils.stringToAddress(peer.trim(), ClusterGossip.DEFAULT_PORT);
+                    if (address == null) {
+                        throw new IllegalArgumentException("Could not resolve peer " + peer);
+                    }
+                    peers.add(address);
+                }
+                config.setPeers(peers);
+            }
+
+            if (line.hasOption("connection_rate")) {
+                config.setConnectionRate(Double.parseDouble(line.getOptionValue("connection_rate")));
+            }
+
+            if (line.hasOption("heartbeat_rate")) {
+                config.setHeartbeatRate(Double.parseDouble(line.getOptionValue("heartbeat_rate")));
+            }
+
+            if (line.hasOption("query_rate")) {
+                config.setQueryRate(Double.parseDouble(line.getOptionValue("query_rate")));
+            }
+
+            if (line.hasOption("metrics_port")) {
+                config.setMetricsPort(Integer.parseInt(line.getOptionValue("metrics_port")));
+            }
+
+            if (line.hasOption("log_level")) {
+                var value = line.getOptionValue("log_level");
+                Log.setLevel(Log.Level.valueOf(value.substring(0, 1).toUpperCase() + value.substring(1).toLowerCase()));
+            }
+
+            if (line.hasOption("target")) {
+                target = line.getOptionValue("target");
+            }
+
+            if (line.hasOption("connections")) {
+                connections = Integer.parseInt(line.getOptionValue("connections"));
+            }
+
+            if (line.hasOption("rate")) {
+                rate = Double.parseDouble(line.getOptionValue("rate"));
+            }
+
+            if (line.hasOption("duration")) {
+                duration = Long.parseLong(line.getOptionValue("duration"));
+            }
         }
-        catch (ParseException exp) {
-            System.err.println("Parsing failed. Reason: " + exp.getMessage());
+        catch (ParseException | IllegalArgumentException | IOException exp) {
+            Log.error("Parsing failed. Reason: %s", exp.getMessage());
             return;
         }
 
+        if (target == null) {
+            target = ServerEmulator.OFFICIAL_MASTER;
+        }
+
         if (main.getMode() == Mode.Master) {
-            main.createMasterServer();
-            System.out.println("Master Server startup");
+            if (!main.createMasterServer(config)) {
+                return;
+            }
+
+            Log.info("Master Server startup (%s engine)", config.getEngine());
             while (running.get() && main.getServer().isValid()) {
                 main.getServer().await();
             }
@@ -155,14 +515,37 @@ public class Main {
                 emulator.pingSingleServer(ip);
             }
         } else if (main.getMode() == Mode.MasterPing) {
-            var ping = new MasterServerPinger();
-            ping.pingMaster();
-            ping.readReplyFromMaster(dumpReply);
+            var address = Utils.stringToAddress(target, MasterServer.PORT);
+            if (address == null) {
+                Log.error("Could not resolve %s", target);
+                return;
+            }
+
+            if (connections > 0) {
+                var load = new QueryLoadGenerator(address, connections, rate, duration);
+                load.run();
+            } else {
+                var ping = new MasterServerPinger(address.getHostString(), address.getPort());
+                ping.setProbeCacheTtl(config.getProbeCacheTtl());
+                ping.pingMaster();
+                ping.readReplyFromMaster(dumpReply);
+            }
         } else if (main.getMode() == Mode.ServerPing) {
-            var ping = new ServerEmulator();
-            ping.pingLoop();
+            var address = Utils.stringToAddress(target, MasterServer.PORT);
+            if (address == null) {
+                Log.error("Could not resolve %s", target);
+                return;
+            }
+
+            if (connections > 0) {
+                var load = new HeartbeatLoadGenerator(address, connections, rate, duration, udp);
+                load.run();
+            } else {
+                var ping = new ServerEmulator(address.getHostString(), address.getPort());
+                ping.pingLoop();
+            }
         }
 
-        System.out.println("Normal shutdown");
+        Log.info("Normal shutdown");
     }
 }
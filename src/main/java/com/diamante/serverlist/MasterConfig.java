@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Settings of the master server mode. Filled in by Main from the command line
+ *
+ * @author Diamante
+ */
+public class MasterConfig {
+
+    public static final long DEFAULT_READ_TIMEOUT = 2000;
+
+    public static final long DEFAULT_WRITE_TIMEOUT = 5000;
+
+    private int port = MasterServer.PORT;
+
+    // UDP port heartbeats are also taken on, 0 disables it
+    private int udpPort;
+
+    private String engine = "blocking";
+
+    private int maxConnections = VirtualThreadMasterServer.DEFAULT_MAX_CONNECTIONS;
+
+    // Milliseconds a connection has to send its packet
+    private long readTimeout = DEFAULT_READ_TIMEOUT;
+
+    // Milliseconds a connection has to take the whole reply
+    private long writeTimeout = DEFAULT_WRITE_TIMEOUT;
+
+    // Entries per page of a list reply, 0 builds every reply as one array
+    private int pageSize;
+
+    private ServerList.Storage storage = ServerList.Storage.Hash;
+
+    // 0 means no cap
+    private int maxServers = RegistryLimits.DEFAULT_MAX_SERVERS;
+
+    private int maxServersPerAddress = RegistryLimits.DEFAULT_MAX_SERVERS_PER_ADDRESS;
+
+    // Seconds between two scans of the registered servers, 0 disables them
+    private long probeInterval = ProbeScheduler.DEFAULT_INTERVAL;
+
+    // Seconds a probe result is reused, 0 probes every server on every scan
+    private long probeCacheTtl = ProbeCache.DEFAULT_TTL;
+
+    // Prefix of the registry snapshot and journal, null keeps it in memory only
+    private String registryFile;
+
+    // HTTP port of the metrics endpoint, 0 disables it
+    private int metricsPort;
+
+    // UDP port the cluster gossip listens on
+    private int gossipPort = ClusterGossip.DEFAULT_PORT;
+
+    // Address the cluster gossip binds to, null for every interface
+    private InetAddress gossipAddress;
+
+    // Key every gossip packet is signed with, null sends them unsigned
+    private byte[] gossipSecret;
+
+    // Other masters of the cluster, empty for a single master
+    private List<InetSocketAddress> peers = Collections.emptyList();
+
+    // Per source address and second, 0 lets everything through
+    private double connectionRate = AdmissionControl.DEFAULT_CONNECTION_RATE;
+
+    private double heartbeatRate = AdmissionControl.DEFAULT_HEARTBEAT_RATE;
+
+    private double queryRate = AdmissionControl.DEFAULT_QUERY_RATE;
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getUdpPort() {
+        return udpPort;
+    }
+
+    public void setUdpPort(int udpPort) {
+        this.udpPort = udpPort;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(long readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public void setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public ServerList.Storage getStorage() {
+        return storage;
+    }
+
+    public void setStorage(ServerList.Storage storage) {
+        this.storage = storage;
+    }
+
+    public int getMaxServers() {
+        return maxServers;
+    }
+
+    public void setMaxServers(int maxServers) {
+        this.maxServers = maxServers;
+    }
+
+    public int getMaxServersPerAddress() {
+        return maxServersPerAddress;
+    }
+
+    public void setMaxServersPerAddress(int maxServersPerAddress) {
+        this.maxServersPerAddress = maxServersPerAddress;
+    }
+
+    public long getProbeInterval() {
+        return probeInterval;
+    }
+
+    public void setProbeInterval(long probeInterval) {
+        this.probeInterval = probeInterval;
+    }
+
+    public long getProbeCacheTtl() {
+        return probeCacheTtl;
+    }
+
+    public void setProbeCacheTtl(long probeCacheTtl) {
+        this.probeCacheTtl = probeCacheTtl;
+    }
+
+    public String getRegistryFile() {
+        return registryFile;
+    }
+
+    public void setRegistryFile(String registryFile) {
+        this.registryFile = registryFile;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public int getGossipPort() {
+        return gossipPort;
+    }
+
+    public void setGossipPort(int gossipPort) {
+        this.gossipPort = gossipPort;
+    }
+
+    public InetAddress getGossipAddress() {
+        return gossipAddress;
+    }
+
+    public void setGossipAddress(InetAddress gossipAddress) {
+        this.gossipAddress = gossipAddress;
+    }
+
+    public byte[] getGossipSecret() {
+        return gossipSecret;
+    }
+
+    public void setGossipSecret(byte[] gossipSecret) {
+        this.gossipSecret = gossipSecret;
+    }
+
+    public List<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    public void setPeers(List<InetSocketAddress> peers) {
+        this.peers = peers;
+    }
+
+    public double getConnectionRate() {
+        return connectionRate;
+    }
+
+    public void setConnectionRate(double connectionRate) {
+        this.connectionRate = connectionRate;
+    }
+
+    public double getHeartbeatRate() {
+        return heartbeatRate;
+    }
+
+    public void setHeartbeatRate(double heartbeatRate) {
+        this.heartbeatRate = heartbeatRate;
+    }
+
+    public double getQueryRate() {
+        return queryRate;
+    }
+
+    public void setQueryRate(double queryRate) {
+        this.queryRate = queryRate;
+    }
+}
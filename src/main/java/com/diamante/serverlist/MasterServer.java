@@ -18,20 +18,23 @@ package com.diamante.serverlist;
 
 import java.net.Socket;
 import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
 
 import java.io.InputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 
-import java.util.Arrays;
-
 import java.io.IOException;
 
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
+ * The original engine. Accepts one connection at a time and handles it before
+ * accepting the next one.
  *
  * @author Diamante
  */
-public class MasterServer {
+public class MasterServer implements MasterServerEngine {
 
     public static final int PORT = 27017;
 
@@ -39,126 +42,157 @@ public class MasterServer {
 
     private boolean valid;
 
-    private final ServerList serverList;
+    private final PacketHandler handler;
+
+    // A blocking write has no timeout of its own, this closes the socket
+    // under a client that does not take its reply
+    private final ScheduledThreadPoolExecutor writeWatchdog;
 
     public MasterServer() {
-        serverList = new ServerList();
+        this(new PacketHandler());
+    }
+
+    public MasterServer(PacketHandler handler) {
+        this.handler = handler;
+
+        writeWatchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            var thread = new Thread(runnable, "MasterServer write watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Most replies are out long before their deadline
+        writeWatchdog.setRemoveOnCancelPolicy(true);
 
         try {
-            socket = new ServerSocket(PORT);
+            socket = new ServerSocket(handler.getPort());
             valid = true;
         } catch (IOException ex) {
-            System.err.println(String.format("Socket creation on port %d failed", PORT));
+            Log.error("Socket creation on port %d failed", handler.getPort());
             valid = false;
         }
     }
 
-    private void handlePacket(Socket from, ByteArrayOutputStream packetData) {
-
-        if (packetData.size() < Utils.PACKET_MIN_LEN) {
-            System.out.println(String.format("handlePacket: packetData.size() is less than %d bytes", Utils.PACKET_MIN_LEN));
-            return;
+    @Override
+    public void await() {
+        var worker = accept();
+        if (worker != null) {
+            handleConnection(worker);
         }
+    }
 
-        var blob = packetData.toByteArray();
-
-        var magicLE = Arrays.copyOfRange(blob, 0, 4);
-        var magicBE = Utils.longSwap(magicLE);
-
-        var versionLE = Arrays.copyOfRange(blob, 4, 8);
-        var versionBE = Utils.longSwap(versionLE);
-
-        if (Utils.isClientMagic(magicBE)) {
-            System.out.println("handlePacket: magic is of type client");
-
-            serverList.removeInactive();
-
-            var toSend = serverList.createResponse(versionBE);
-
-            try {
-                var out = new DataOutputStream(from.getOutputStream());
-                out.write(toSend);
-
-                // Clean things up
-                out.close();
-            } catch (IOException ex) {
-                System.err.println("handlePacket: IOException in DataOutputStream(from.getOutputStream())");
-            }
-        } else if (Utils.isServerMagic(magicBE)) {
-            System.out.println("handlePacket: magic is of type server");
-
-            if (packetData.size() < 10) {
-                System.out.println("handlePacket: server packet is less than 10 bytes");
-                return;
+    /**
+     * @return the accepted socket or null if accept() failed
+     */
+    protected Socket accept() {
+        try {
+            var worker = socket.accept();
+            if (!handler.admit(worker.getInetAddress())) {
+                worker.close();
+                return null;
             }
 
-            var portLE = Arrays.copyOfRange(blob, 8, 10);
-            var portBE = Utils.shortSwap(portLE);
-            System.out.println(String.format("handlePacket: server %s has net_port %d", from.getInetAddress(), portBE));
-
-            var server = new Server(from.getInetAddress(), portBE, versionBE);
-            serverList.addServer(server);
-        } else {
-            System.out.println("handlePacket: magic is not recognized");
+            Log.debug("Accepted a connection");
+            return worker;
+        } catch (IOException ex) {
+            Log.error("accept: IOException in socket.accept()");
+            return null;
         }
-
-        serverList.dumpOnlineServers();
     }
 
-    public void await() {
-        Socket worker;
+    /**
+     * Reads a packet from worker, replies if needed and closes it. Safe to
+     * call from multiple threads at once
+     *
+     * @param worker the accepted socket
+     */
+    protected void handleConnection(Socket worker) {
         InputStream in;
 
-        try {
-            worker = socket.accept();
-            System.out.println("Accepted a connection");
-        } catch (IOException ex) {
-            System.err.println("await: IOException in socket.accept()");
-            return;
-        }
-
         try {
             in = worker.getInputStream();
         } catch (IOException ex) {
-            System.err.println("await: IOException in worker.getInputStream()");
+            Log.error("handleConnection: IOException in worker.getInputStream()");
+            close(worker);
             return;
         }
 
-        var bytes = new byte[Utils.BUFFER_SIZE];
-        var out = new ByteArrayOutputStream();
-
-        int count;
+        // The client never closes its end, so read exactly one packet and
+        // stop. The deadline covers the whole packet, not each read
+        var decoder = new FrameDecoder();
+        var deadline = System.nanoTime() + handler.getReadTimeout() * 1_000_000L;
 
         try {
-            while ((count = in.read(bytes)) > 0) {
-                out.write(bytes, 0, count);
+            while (!decoder.update()) {
+                var left = (deadline - System.nanoTime()) / 1_000_000L;
+                if (left <= 0) {
+                    throw new SocketTimeoutException();
+                }
+
+                worker.setSoTimeout((int) Math.min(left, Integer.MAX_VALUE));
 
-                // The client seems to cause this loop to never end
-                // We cut connection after PACKET_MIN_LEN is read
-                // Server does not cause problems
-                if (count >= Utils.PACKET_MIN_LEN) {
+                var frame = decoder.buffer();
+                var count = in.read(frame.array(), frame.position(), frame.remaining());
+                if (count < 0) {
+                    // Peer is done sending, handlePacket decides what to make of it
                     break;
                 }
+
+                frame.position(frame.position() + count);
             }
+        } catch (SocketTimeoutException ex) {
+            Log.debug("handleConnection: %s did not send a whole packet in time", worker.getInetAddress());
+            handler.getMetrics().onReadTimeout();
+            close(worker);
+            return;
         } catch (IOException ex) {
-            System.err.println("await: IOException in in.read(bytes)");
+            Log.error("handleConnection: IOException in in.read()");
+            close(worker);
             return;
         }
 
-        System.out.println(String.format("await: received %d", out.size()));
-        handlePacket(worker, out);
+        Log.debug("handleConnection: received %d", decoder.length());
+        var toSend = handler.handlePacket(worker.getInetAddress(), decoder.array(), decoder.length());
+
+        if (toSend != null) {
+            var watchdog = writeWatchdog.schedule(() -> close(worker), handler.getWriteTimeout(), TimeUnit.MILLISECONDS);
+
+            try {
+                var data = new DataOutputStream(worker.getOutputStream());
+                for (var page : toSend) {
+                    data.write(page);
+                }
+
+                // Clean things up
+                data.close();
+            } catch (IOException ex) {
+                if (watchdog.isDone()) {
+                    Log.debug("handleConnection: %s did not take the whole reply in time", worker.getInetAddress());
+                    handler.getMetrics().onWriteTimeout();
+                } else {
+                    Log.error("handleConnection: IOException in DataOutputStream(worker.getOutputStream())");
+                }
+            } finally {
+                watchdog.cancel(false);
+            }
+        }
 
         // Clean things up
+        close(worker);
+    }
+
+    private static void close(Socket worker) {
         try {
             worker.close();
-            out.close();
-            in.close();
         } catch (IOException ex) {
-            System.err.println("await: IOException while cleaning up");
+            Log.error("handleConnection: IOException while cleaning up");
         }
     }
 
+    @Override
     public void stop() {
+        handler.stop();
+        writeWatchdog.shutdownNow();
+
         // Can happen if multiple instances are launched
         if (socket == null || socket.isClosed()) {
             return;
@@ -167,10 +201,11 @@ public class MasterServer {
         try {
             socket.close();
         } catch (IOException ex) {
-            System.err.println("stop: IOException in socket.close()");
+            Log.error("stop: IOException in socket.close()");
         }
     }
 
+    @Override
     public boolean isValid() {
         return valid;
     }
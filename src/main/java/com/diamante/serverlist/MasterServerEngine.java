@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+/**
+ * A way of accepting connections on the master server port. Main calls
+ * await() in a loop until the engine becomes invalid or we are shutting down.
+ *
+ * @author Diamante
+ */
+public interface MasterServerEngine {
+
+    /**
+     * Performs one unit of work. Must return periodically so the caller can
+     * check Main.running
+     */
+    void await();
+
+    void stop();
+
+    boolean isValid();
+}
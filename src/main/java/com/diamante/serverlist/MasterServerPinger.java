@@ -17,10 +17,8 @@
 package com.diamante.serverlist;
 
 import java.util.Set;
-import java.util.Collections;
 import java.util.HashSet;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import java.net.Socket;
@@ -40,105 +38,220 @@ public class MasterServerPinger {
     private static final String LAN_MASTER = "127.0.0.1";
     private static final int MASTER_PORT = 27017;
 
+    // Milliseconds without a byte from the master before we give up
+    private static final int READ_TIMEOUT = 5000;
+
+    // Servers waiting for a probe while the list is still coming in. Past
+    // that we stop reading until the probes catch up
+    private static final int FEED_CAPACITY = 1024;
+
+    private final String host;
+
+    private final int port;
+
     private Socket clientSocket;
 
+    // Seconds a probe result of an earlier run is reused for -dump_reply
+    private long probeCacheTtl = ProbeCache.DEFAULT_TTL;
+
+    public MasterServerPinger() {
+        this(OFFICIAL_MASTER, MASTER_PORT);
+    }
+
+    public MasterServerPinger(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public void setProbeCacheTtl(long probeCacheTtl) {
+        this.probeCacheTtl = probeCacheTtl;
+    }
+
     public void pingMaster() {
         try {
-            clientSocket = new Socket(OFFICIAL_MASTER, MASTER_PORT);
+            clientSocket = new Socket(host, port);
         }
         catch (IOException ex) {
-            System.err.println("IOException: Failed to open a socket");
+            Log.error("IOException: Failed to open a socket");
             return;
         }
 
         try {
             var output = clientSocket.getOutputStream();
-            var data = new byte[8];
-
-            var magicLE = Utils.longSwap(Utils.NEW_CLIENT_MAGIC);
-            var versionLE = Utils.longSwap(Utils.CLIENT_VERSION);
+            var data = new byte[Utils.PACKET_CLIENT_LEN];
 
-            System.arraycopy(magicLE, 0, data, 0, 4);
-            System.arraycopy(versionLE, 0, data, 4, 4);
+            PacketCodec.writeClientQuery(data, Utils.NEW_CLIENT_MAGIC, Utils.CLIENT_VERSION);
 
             output.write(data);
         }
         catch (IOException ex) {
-            System.err.println("IOException: Failed to write to a socket");
+            Log.error("IOException: Failed to write to a socket");
         }
     }
 
     public void readReplyFromMaster(Boolean dump) {
-        var out = new ByteArrayOutputStream();
+        if (clientSocket == null) {
+            return;
+        }
+
+        // Start probing before the first entry is in
+        var reply = new Reply(dump ? new Census() : null);
+        var decoder = new ListReplyDecoder(reply);
 
         try {
-            System.out.println("readReplyFromMaster: awaiting reply from master server");
+            Log.debug("readReplyFromMaster: awaiting reply from master server");
+            clientSocket.setSoTimeout(READ_TIMEOUT);
             var input = clientSocket.getInputStream();
-            System.out.println("readReplyFromMaster: finished waiting for a reply from master server");
-            var bytes = new byte[0x1000 * 0x6 + 0x4];
+            var bytes = new byte[Utils.BUFFER_SIZE * 128];
+
+            // Stop as soon as the header's entry count is in instead of
+            // waiting for the close, bytes past the last entry that came in
+            // the same read still make the reply invalid
+            int count;
+            while (!decoder.isComplete() && (count = input.read(bytes)) != -1) {
+                decoder.feed(bytes, 0, count);
+            }
 
-            int count = input.read(bytes);
-            out.write(bytes, 0, count);
+            Log.debug("readReplyFromMaster: finished reading bytes from socket");
+        }
+        catch (IOException ex) {
+            Log.error("IOException: Failed to read from a socket");
+        }
 
-            System.out.println("readReplyFromMaster: finished reading bytes from socket");
+        try {
+            clientSocket.close();
         }
         catch (IOException ex) {
-            System.err.println("IOException: Failed to read from a socket");
+            Log.error("readReplyFromMaster: IOException in clientSocket.close()");
         }
 
-        if (out.size() == 0) {
-            System.out.println("readReplyFromMaster: got no reply");
+        finish(decoder, reply);
+    }
 
-            try {
-                out.close();
-            }
-            catch (IOException ex) {
-                System.err.println("readReplyFromMaster: IOException in out.close()");
-            }
+    /**
+     * @param bytes a list reply
+     * @param length how many bytes of it were received
+     * @return the number of entries in the reply or -1 if it is truncated or
+     * does not hold as many entries as its header says
+     */
+    static int validateReply(byte[] bytes, int length) {
+        if (length < PacketCodec.LIST_HEADER_LEN) {
+            return -1;
+        }
 
-            return;
+        var body = length - PacketCodec.LIST_HEADER_LEN;
+        if (body % PacketCodec.LIST_ENTRY_LEN != 0) {
+            return -1;
         }
 
-        var bytes = out.toByteArray();
+        var entries = body / PacketCodec.LIST_ENTRY_LEN;
+        return PacketCodec.listCount(bytes) == entries ? entries : -1;
+    }
 
-        var serverCountLE = new byte[4];
+    /**
+     * Decodes a list reply from the master
+     *
+     * @param bytes the whole reply
+     * @param dump ping the listed servers and save the list to a file
+     */
+    void processReply(byte[] bytes, boolean dump) {
+        var reply = new Reply(dump ? new Census() : null);
+        var decoder = new ListReplyDecoder(reply);
+        decoder.feed(bytes, 0, bytes.length);
+
+        finish(decoder, reply);
+    }
 
-        System.arraycopy(bytes, 0, serverCountLE, 0, 4);
+    /**
+     * Probes the listed servers while the list is still being read, each
+     * entry goes to the probes as soon as it is decoded. Results stream to
+     * the probe result sink as they come in.
+     */
+    private class Census {
 
-        var serverCountBE = Utils.longSwap(serverCountLE);
+        private final ProbeEngine.Feed feed = new ProbeEngine.Feed(FEED_CAPACITY);
 
-        System.out.println(String.format("readReplyFromMaster: got %d servers", serverCountBE));
+        private final ProbeCache cache = ProbeCache.create(probeCacheTtl);
 
-        var root = new JSONObject();
-        var serverArray = new JSONArray();
+        private final long start = System.nanoTime();
 
-        Set<Server> serverList = Collections.synchronizedSet(new HashSet<>());
+        private final Thread thread;
 
-        // Process server data
-        for (int i = 4; i < bytes.length; i += 6) {
-            if (i + 6 > bytes.length) {
-                System.err.println("readReplyFromMaster: Incomplete server data detected");
-                break;
+        private int probed;
+
+        private int cached;
+
+        private Census() {
+            var emulator = new ClientEmulator(null, null, cache);
+            thread = new Thread(() -> emulator.probe(feed), "Census");
+            thread.start();
+        }
+
+        /**
+         * Blocks while FEED_CAPACITY servers are already waiting
+         */
+        private void offer(Server server) {
+            if (cache != null && cache.get(server) != null) {
+                ++cached;
+                return;
+            }
+
+            try {
+                feed.put(server);
+                ++probed;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
             }
+        }
+
+        /**
+         * Waits for the last probe
+         */
+        private void finish() {
+            feed.close();
+
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            Log.info("Census: probed %d servers, %d cached, done %d ms after the query", probed, cached, (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    /**
+     * Collects the entries of a reply as they are decoded
+     */
+    private static class Reply implements ListReplyDecoder.Visitor {
+
+        // Null unless we dump
+        private final Census census;
 
-            byte[] ipBytesLE = new byte[4];
-            System.arraycopy(bytes, i, ipBytesLE, 0, 4);
-            var ipBytesBE = Utils.bytesToInt(ipBytesLE);
+        private final Set<Server> servers = new HashSet<>();
 
-            var ipAddress = Utils.bytesToIP(ipBytesBE);
+        private final JSONArray serverArray = new JSONArray();
 
-            var portBytesLE = new byte[2];
-            System.arraycopy(bytes, i + 4, portBytesLE, 0, 2);
-            var port = Utils.shortSwap(portBytesLE);
+        private Reply(Census census) {
+            this.census = census;
+        }
+
+        @Override
+        public void visit(int ip, short port) {
+            var ipAddress = Utils.ipToString(ip);
 
-            System.out.println(String.format("Server: %s:%d", ipAddress, port));
+            Log.info("Server: %s:%d", ipAddress, port);
 
-            if (!dump) {
-                continue;
+            if (census == null) {
+                return;
             }
 
+            // Listed twice, one probe is enough
             var server = Utils.stringToServer(ipAddress + ":" + port);
-            serverList.add(server);
+            if (server != null && servers.add(server)) {
+                census.offer(server);
+            }
 
             var serverObject = new JSONObject();
             serverObject.put("IP", ipAddress);
@@ -146,22 +259,32 @@ public class MasterServerPinger {
 
             serverArray.add(serverObject);
         }
+    }
 
-        if (dump) {
-            var thread = new Thread(new ClientEmulator(serverList));
-            thread.start();
+    private void finish(ListReplyDecoder decoder, Reply reply) {
+        var serverCountBE = decoder.getCount();
+        if (serverCountBE < 0) {
+            Log.info("readReplyFromMaster: got no reply");
+            if (reply.census != null) {
+                reply.census.finish();
+            }
+            return;
+        }
 
+        Log.info("readReplyFromMaster: got %d servers", serverCountBE);
+
+        if (!decoder.isValid()) {
+            Log.warn("readReplyFromMaster: Incomplete server data detected, %d entries for a count of %d", decoder.getEntries(), serverCountBE);
+        }
+
+        if (reply.census != null) {
+            var root = new JSONObject();
             root.put("totalServers", serverCountBE);
-            root.put("servers", serverArray);
+            root.put("servers", reply.serverArray);
 
             Utils.saveJSONFile(String.format("server_dump_%d.json", System.currentTimeMillis() / 1000L), root);
-        }
 
-        try {
-            out.close();
-        }
-        catch (IOException ex) {
-            System.err.println("readReplyFromMaster: IOException in out.close()");
+            reply.census.finish();
         }
     }
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and histograms of a master server. Everything is cheap enough to
+ * record on every packet, render() turns them into the Prometheus text format
+ * when somebody scrapes MetricsServer.
+ *
+ * @author Diamante
+ */
+public class Metrics {
+
+    // Latency buckets in seconds
+    private static final double[] TIME_BUCKETS = {
+        0.00001, 0.0001, 0.001, 0.01, 0.1, 1, 10
+    };
+
+    // Reply size buckets in bytes
+    private static final double[] SIZE_BUCKETS = {
+        64, 256, 1024, 4096, 16384, 65536, 262144, 1048576
+    };
+
+    /**
+     * Counters by label. Anybody can send us any magic or version, so past
+     * maxLabels everything new is counted as "other"
+     */
+    private static class LabelledCounter {
+
+        private final int maxLabels;
+
+        private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+        private LabelledCounter(int maxLabels) {
+            this.maxLabels = maxLabels;
+        }
+
+        private void increment(String label) {
+            var counter = counters.get(label);
+            if (counter == null) {
+                if (counters.size() >= maxLabels) {
+                    label = "other";
+                }
+                counter = counters.computeIfAbsent(label, key -> new LongAdder());
+            }
+
+            counter.increment();
+        }
+    }
+
+    private final LongAdder accepts = new LongAdder();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder readTimeouts = new LongAdder();
+
+    private final LongAdder writeTimeouts = new LongAdder();
+
+    private final LabelledCounter packets = new LabelledCounter(16);
+
+    private final LabelledCounter queries = new LabelledCounter(16);
+
+    private final LabelledCounter rejected = new LabelledCounter(4);
+
+    private final LatencyHistogram responseTime = new LatencyHistogram();
+
+    private final LatencyHistogram responseSize = new LatencyHistogram();
+
+    private final LongAdder probeReplies = new LongAdder();
+
+    private final LongAdder probeTimeouts = new LongAdder();
+
+    private final LatencyHistogram scanTime = new LatencyHistogram();
+
+    private final LongAdder gossipPacketsSent = new LongAdder();
+
+    private final LongAdder gossipBytesSent = new LongAdder();
+
+    private final LongAdder gossipPacketsReceived = new LongAdder();
+
+    private final LongAdder gossipBytesReceived = new LongAdder();
+
+    private final LongAdder gossipPacketsDropped = new LongAdder();
+
+    private final LatencyHistogram gossipDelay = new LatencyHistogram();
+
+    /**
+     * A value read on every scrape
+     */
+    private static class Gauge {
+
+        private final String help;
+
+        private final LongSupplier value;
+
+        private Gauge(String help, LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    public void onAccept() {
+        accepts.increment();
+    }
+
+    public void onReadTimeout() {
+        readTimeouts.increment();
+    }
+
+    public void onWriteTimeout() {
+        writeTimeouts.increment();
+    }
+
+    /**
+     * @param magic the magic of the packet in BE
+     * @param length how many bytes the packet has
+     */
+    public void onPacket(int magic, int length) {
+        bytesRead.add(length);
+        packets.increment(magicName(magic));
+    }
+
+    /**
+     * @param version the version the client asked for
+     * @param nanos how long createResponse took
+     * @param size bytes in the reply
+     */
+    public void onQuery(int version, long nanos, int size) {
+        queries.increment(Integer.toString(version));
+        responseTime.record(nanos);
+        responseSize.record(size);
+    }
+
+    /**
+     * @param kind what the client was over its budget for
+     */
+    public void onReject(AdmissionControl.Kind kind) {
+        rejected.increment(kind.name().toLowerCase());
+    }
+
+    public void onProbeReply() {
+        probeReplies.increment();
+    }
+
+    public void onProbeTimeout() {
+        probeTimeouts.increment();
+    }
+
+    public void onScan(long nanos) {
+        scanTime.record(nanos);
+    }
+
+    public void onGossipSent(int length) {
+        gossipPacketsSent.increment();
+        gossipBytesSent.add(length);
+    }
+
+    /**
+     * A packet came from outside the cluster or had a bad signature
+     */
+    public void onGossipDropped() {
+        gossipPacketsDropped.increment();
+    }
+
+    /**
+     * @param length bytes in the packet
+     * @param nanos time since the oldest change in the packet happened on
+     * the sender, negative if the packet has none
+     */
+    public void onGossipReceived(int length, long nanos) {
+        gossipPacketsReceived.increment();
+        gossipBytesReceived.add(length);
+
+        if (nanos >= 0) {
+            gossipDelay.record(nanos);
+        }
+    }
+
+    /**
+     * Values that already live elsewhere, like the registry size, are read
+     * when rendering instead of being copied here
+     *
+     * @param name full metric name, counters end in _total
+     * @param help what the value means
+     * @param value read on every scrape
+     */
+    public void addGauge(String name, String help, LongSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * Magics are four ASCII letters, fall back to hex for anything else
+     */
+    private static String magicName(int magic) {
+        var name = new StringBuilder(4);
+        for (var shift = 24; shift >= 0; shift -= 8) {
+            var c = (char) ((magic >>> shift) & 0xFF);
+            if (c < 'A' || c > 'Z') {
+                return String.format("0x%08x", magic);
+            }
+            name.append(c);
+        }
+
+        return name.toString();
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public String render() {
+        var out = new StringBuilder(4096);
+
+        counter(out, "master_accepts_total", "Connections accepted", accepts.sum());
+        counter(out, "master_bytes_read_total", "Bytes of packets handled", bytesRead.sum());
+        counter(out, "master_read_timeouts_total", "Connections closed because no whole packet came in time", readTimeouts.sum());
+        counter(out, "master_write_timeouts_total", "Connections closed because they did not take the whole reply in time", writeTimeouts.sum());
+        labelled(out, "master_packets_total", "Packets handled by magic", "magic", packets);
+        labelled(out, "master_queries_total", "List queries by client version", "version", queries);
+        labelled(out, "master_rejected_total", "Attempts refused because the source address was over its budget", "kind", rejected);
+        histogram(out, "master_response_seconds", "Time to get a list reply from createResponse", responseTime, TIME_BUCKETS, 1e9);
+        histogram(out, "master_response_bytes", "Size of list replies", responseSize, SIZE_BUCKETS, 1);
+        counter(out, "master_probe_replies_total", "Probed servers that replied", probeReplies.sum());
+        counter(out, "master_probe_timeouts_total", "Probed servers that did not reply in time", probeTimeouts.sum());
+        histogram(out, "master_probe_scan_seconds", "Time to probe every registered server", scanTime, TIME_BUCKETS, 1e9);
+        counter(out, "master_gossip_sent_packets_total", "Gossip packets sent to other nodes", gossipPacketsSent.sum());
+        counter(out, "master_gossip_sent_bytes_total", "Gossip bytes sent to other nodes", gossipBytesSent.sum());
+        counter(out, "master_gossip_received_packets_total", "Gossip packets received from other nodes", gossipPacketsReceived.sum());
+        counter(out, "master_gossip_received_bytes_total", "Gossip bytes received from other nodes", gossipBytesReceived.sum());
+        counter(out, "master_gossip_dropped_packets_total", "Gossip packets dropped because they were not from a peer or had a bad signature", gossipPacketsDropped.sum());
+        histogram(out, "master_gossip_delay_seconds", "Time from a change on one node until another node applied it", gossipDelay, TIME_BUCKETS, 1e9);
+
+        for (var entry : gauges.entrySet()) {
+            var name = entry.getKey();
+            header(out, name, entry.getValue().help, name.endsWith("_total") ? "counter" : "gauge");
+            out.append(name).append(' ').append(entry.getValue().value.getAsLong()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void labelled(StringBuilder out, String name, String help, String label, LabelledCounter counter) {
+        header(out, name, help, "counter");
+        for (var entry : counter.counters.entrySet()) {
+            out.append(name).append('{').append(label).append("=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().sum()).append('\n');
+        }
+    }
+
+    /**
+     * Buckets are rounded to the ones of LatencyHistogram, which are within
+     * about 6% of the advertised bound
+     *
+     * @param scale how many recorded units make one unit of the metric
+     */
+    private static void histogram(StringBuilder out, String name, String help, LatencyHistogram histogram, double[] buckets, double scale) {
+        header(out, name, help, "histogram");
+
+        // Read the count first so no bucket can end up above it
+        var count = histogram.getCount();
+        for (var bucket : buckets) {
+            var below = Math.min(histogram.getCountAtOrBelow((long) (bucket * scale)), count);
+            out.append(name).append("_bucket{le=\"").append(bucket).append("\"} ").append(below).append('\n');
+        }
+
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum ").append(histogram.getSum() / scale).append('\n');
+        out.append(name).append("_count ").append(count).append('\n');
+    }
+}
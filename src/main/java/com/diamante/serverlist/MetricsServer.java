@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves Metrics on GET /metrics with the HTTP server that ships with the
+ * JDK. Runs on its own port and thread so scrapes never touch the master
+ * port.
+ *
+ * @author Diamante
+ */
+public class MetricsServer {
+
+    private final Metrics metrics;
+
+    private HttpServer server;
+
+    /**
+     * @param metrics what to serve
+     * @param port the HTTP port
+     */
+    public MetricsServer(Metrics metrics, int port) {
+        this.metrics = metrics;
+
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", this::handle);
+            server.start();
+            Log.info("MetricsServer: serving metrics on port %d", port);
+        } catch (IOException ex) {
+            Log.warn("MetricsServer: could not listen on port %d", port);
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            var body = metrics.render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+}
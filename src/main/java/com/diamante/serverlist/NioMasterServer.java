@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking engine. A single thread multiplexes every connection with a
+ * Selector so a slow client no longer holds up everyone else.
+ *
+ * @author Diamante
+ */
+public class NioMasterServer implements MasterServerEngine {
+
+    // How long select() may block before we check Main.running again
+    private static final long SELECT_TIMEOUT = 500;
+
+    // Milliseconds between two looks for connections past their deadline
+    private static final long SWEEP_INTERVAL = 100;
+
+    // Milliseconds we stop accepting after accept() failed, out of file
+    // descriptors most likely
+    private static final long ACCEPT_BACKOFF = 100;
+
+    private long nextSweep;
+
+    // System.nanoTime() when we accept again, 0 while we do
+    private long acceptPausedUntil;
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    private SelectionKey serverKey;
+
+    private boolean valid;
+
+    private final PacketHandler handler;
+
+    /**
+     * State we keep for each open connection
+     */
+    private static class Connection {
+
+        private final FrameDecoder in = new FrameDecoder();
+
+        // System.nanoTime() by which the whole packet must be in, then by
+        // which the whole reply must be out
+        private long deadline;
+
+        // A paged reply goes out in one gathering write
+        private ByteBuffer[] out;
+
+        private Connection(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+
+    public NioMasterServer() {
+        this(new PacketHandler());
+    }
+
+    public NioMasterServer(PacketHandler handler) {
+        this.handler = handler;
+
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(handler.getPort()));
+            serverChannel.configureBlocking(false);
+            serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            valid = true;
+        } catch (IOException ex) {
+            Log.error("Socket creation on port %d failed", handler.getPort());
+            valid = false;
+        }
+    }
+
+    @Override
+    public void await() {
+        resumeAccept();
+
+        try {
+            // 0 would block for good
+            var timeout = Math.min(SELECT_TIMEOUT, Math.min(handler.getReadTimeout(), handler.getWriteTimeout()));
+            if (acceptPausedUntil != 0) {
+                timeout = Math.min(timeout, ACCEPT_BACKOFF);
+            }
+            selector.select(Math.max(1, timeout));
+        } catch (IOException ex) {
+            Log.error("await: IOException in selector.select()");
+            valid = false;
+            return;
+        }
+
+        var it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            var key = it.next();
+            it.remove();
+
+            if (!key.isValid()) {
+                continue;
+            }
+
+            // The listener is never closed here, only client connections
+            if (key.isAcceptable()) {
+                accept();
+                continue;
+            }
+
+            try {
+                if (key.isReadable()) {
+                    read(key);
+                } else if (key.isWritable()) {
+                    write(key);
+                }
+            } catch (IOException ex) {
+                Log.error("await: IOException while servicing a connection");
+                close(key);
+            }
+        }
+
+        closeExpired();
+    }
+
+    /**
+     * Closes the connections that did not send a whole packet or take the
+     * whole reply in time, so a peer that sends or reads nothing only holds
+     * a socket until its deadline
+     */
+    private void closeExpired() {
+        var now = System.nanoTime();
+        if (now - nextSweep < 0) {
+            return;
+        }
+        nextSweep = now + SWEEP_INTERVAL * 1_000_000L;
+
+        for (var key : selector.keys()) {
+            if (!(key.attachment() instanceof Connection)) {
+                continue;
+            }
+
+            var conn = (Connection) key.attachment();
+            if (now - conn.deadline <= 0) {
+                continue;
+            }
+
+            var from = ((SocketChannel) key.channel()).socket().getInetAddress();
+            if (conn.out == null) {
+                Log.debug("closeExpired: %s did not send a whole packet in time", from);
+                handler.getMetrics().onReadTimeout();
+            } else {
+                Log.debug("closeExpired: %s did not take the whole reply in time", from);
+                handler.getMetrics().onWriteTimeout();
+            }
+            close(key);
+        }
+    }
+
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException ex) {
+                // The listener stays readable while the backlog is full, so
+                // stop asking for a while instead of spinning on the error
+                Log.error("accept: IOException in serverChannel.accept(), pausing for %d ms", ACCEPT_BACKOFF);
+                serverKey.interestOps(0);
+                acceptPausedUntil = System.nanoTime() + ACCEPT_BACKOFF * 1_000_000L;
+                return;
+            }
+
+            if (channel == null) {
+                return;
+            }
+
+            try {
+                if (!handler.admit(channel.socket().getInetAddress())) {
+                    channel.close();
+                    continue;
+                }
+
+                Log.debug("Accepted a connection");
+                channel.configureBlocking(false);
+                var deadline = System.nanoTime() + handler.getReadTimeout() * 1_000_000L;
+                channel.register(selector, SelectionKey.OP_READ, new Connection(deadline));
+            } catch (IOException ex) {
+                Log.error("accept: IOException while setting up a connection");
+                try {
+                    channel.close();
+                } catch (IOException ex2) {
+                    Log.error("accept: IOException in channel.close()");
+                }
+            }
+        }
+    }
+
+    private void resumeAccept() {
+        if (acceptPausedUntil != 0 && System.nanoTime() - acceptPausedUntil >= 0) {
+            acceptPausedUntil = 0;
+            serverKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        var channel = (SocketChannel) key.channel();
+        var conn = (Connection) key.attachment();
+        var in = conn.in;
+
+        // Only ever asks for what is missing from the packet
+        var count = channel.read(in.buffer());
+
+        if (count < 0) {
+            // Peer is done sending. Handle whatever we got like the old loop did
+            dispatch(key, channel, conn);
+            return;
+        }
+
+        if (in.update()) {
+            dispatch(key, channel, conn);
+        }
+    }
+
+    private void dispatch(SelectionKey key, SocketChannel channel, Connection conn) throws IOException {
+        Log.debug("await: received %d", conn.in.length());
+
+        var from = channel.socket().getInetAddress();
+        var toSend = handler.handlePacket(from, conn.in.array(), conn.in.length());
+
+        if (toSend == null) {
+            close(key);
+            return;
+        }
+
+        conn.deadline = System.nanoTime() + handler.getWriteTimeout() * 1_000_000L;
+        conn.out = new ByteBuffer[toSend.length];
+        for (var i = 0; i < toSend.length; ++i) {
+            conn.out[i] = ByteBuffer.wrap(toSend[i]);
+        }
+
+        key.interestOps(SelectionKey.OP_WRITE);
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        var channel = (SocketChannel) key.channel();
+        var conn = (Connection) key.attachment();
+
+        channel.write(conn.out);
+
+        if (!conn.out[conn.out.length - 1].hasRemaining()) {
+            close(key);
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+
+        try {
+            key.channel().close();
+        } catch (IOException ex) {
+            Log.error("close: IOException in channel.close()");
+        }
+    }
+
+    @Override
+    public void stop() {
+        handler.stop();
+
+        if (selector == null) {
+            return;
+        }
+
+        try {
+            for (var key : selector.keys()) {
+                key.channel().close();
+            }
+
+            selector.close();
+        } catch (IOException ex) {
+            Log.error("stop: IOException while closing the selector");
+        }
+    }
+
+    @Override
+    public boolean isValid() {
+        return valid;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Compact store. Entries live in parallel primitive arrays of an open
+ * addressing hash table keyed by ip << 16 | net_port, about 16 bytes per slot
+ * instead of a Server, an InetAddress and three boxed fields per entry.
+ *
+ * An address and port can only be registered under one version at a time, a
+ * heartbeat with a different version replaces it. Only IPv4 is stored, which
+ * is all the list reply can carry anyway. Every operation takes the same lock.
+ *
+ * @author Diamante
+ */
+public class PackedServerStore implements ServerStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // How many times per timeout the expiry sweep goes over the whole table.
+    // A server is removed at most timeout / SWEEPS seconds late
+    private static final int SWEEPS = 4;
+
+    // Set on every used slot so ip 0.0.0.0 port 0 is not mistaken for empty
+    private static final long USED = 1L << 63;
+
+    private long[] keys;
+
+    private int[] versions;
+
+    // Seconds since base, an int of seconds since the epoch runs out in 2038
+    private int[] times;
+
+    // Seconds since the epoch when the store was created
+    private final long base = System.currentTimeMillis() / 1000L;
+
+    private int mask;
+
+    private int size;
+
+    // Next slot the expiry sweep looks at
+    private int cursor;
+
+    private final long timeout;
+
+    private final Consumer<Server> onExpire;
+
+    private final Consumer<Server> onReplace;
+
+    /**
+     * @param timeout seconds without a heartbeat before a server expires
+     * @param onExpire called after a server was removed because of inactivity
+     * @param onReplace called with the old entry after a server came back on
+     * another version, only one version per address and port fits a slot
+     */
+    public PackedServerStore(long timeout, Consumer<Server> onExpire, Consumer<Server> onReplace) {
+        this.timeout = timeout;
+        this.onExpire = onExpire;
+        this.onReplace = onReplace;
+
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        versions = new int[capacity];
+        times = new int[capacity];
+        mask = capacity - 1;
+        cursor = 0;
+    }
+
+    private static long keyOf(int ip, short netPort) {
+        return USED | (ip & 0xFFFFFFFFL) << 16 | (netPort & 0xFFFF);
+    }
+
+    private int slotOf(long key) {
+        // Murmur3 finalizer, the low bits of the key alone are just the port
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    /**
+     * @return the slot holding key or the empty slot where it would go
+     */
+    private int find(long key) {
+        var slot = slotOf(key);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private static boolean isIPv4(Server server) {
+        return server.getAddress() instanceof Inet4Address;
+    }
+
+    @Override
+    public synchronized boolean upsert(Server server) {
+        if (!isIPv4(server)) {
+            Log.warn("upsert: %s is not IPv4, ignoring", server);
+            return false;
+        }
+
+        var key = keyOf(Utils.bytesToInt(server.getAddress().getAddress()), server.getNetPort());
+        var slot = find(key);
+
+        if (keys[slot] == key) {
+            if (versions[slot] != server.getVersion()) {
+                // Same address and port on another version, treat it as new.
+                // The old entry goes out with its own time
+                var old = toServer(key, versions[slot], timeAt(slot));
+                versions[slot] = server.getVersion();
+                times[slot] = pack(server.getTime());
+
+                if (old != null) {
+                    onReplace.accept(old);
+                }
+                return true;
+            }
+
+            times[slot] = pack(server.getTime());
+            return false;
+        }
+
+        keys[slot] = key;
+        versions[slot] = server.getVersion();
+        times[slot] = pack(server.getTime());
+
+        if (++size > keys.length / 2) {
+            grow();
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized boolean refresh(Server server) {
+        if (!isIPv4(server)) {
+            return false;
+        }
+
+        var key = keyOf(Utils.bytesToInt(server.getAddress().getAddress()), server.getNetPort());
+        var slot = find(key);
+
+        if (keys[slot] != key || versions[slot] != server.getVersion()) {
+            return false;
+        }
+
+        times[slot] = pack(server.getTime());
+        return true;
+    }
+
+    @Override
+    public synchronized boolean contains(Server server) {
+        if (!isIPv4(server)) {
+            return false;
+        }
+
+        var slot = find(keyOf(Utils.bytesToInt(server.getAddress().getAddress()), server.getNetPort()));
+        return keys[slot] != 0 && versions[slot] == server.getVersion();
+    }
+
+    @Override
+    public synchronized boolean merge(Server server) {
+        if (!isIPv4(server)) {
+            return false;
+        }
+
+        var key = keyOf(Utils.bytesToInt(server.getAddress().getAddress()), server.getNetPort());
+        var slot = find(key);
+
+        if (keys[slot] == key && versions[slot] == server.getVersion()) {
+            times[slot] = Math.max(times[slot], pack(server.getTime()));
+            return false;
+        }
+
+        return upsert(server);
+    }
+
+    @Override
+    public synchronized boolean remove(Server server, long time) {
+        if (!isIPv4(server)) {
+            return false;
+        }
+
+        var key = keyOf(Utils.bytesToInt(server.getAddress().getAddress()), server.getNetPort());
+        var slot = find(key);
+
+        if (keys[slot] != key || versions[slot] != server.getVersion() || timeAt(slot) > time) {
+            return false;
+        }
+
+        removeAt(slot);
+        return true;
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldVersions = versions;
+        var oldTimes = times;
+
+        allocate(oldKeys.length * 2);
+
+        for (var i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != 0) {
+                var slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                versions[slot] = oldVersions[i];
+                times[slot] = oldTimes[i];
+            }
+        }
+    }
+
+    /**
+     * Backward shift deletion, moves later entries of the same probe chain
+     * into the hole so lookups never need tombstones
+     */
+    private void removeAt(int hole) {
+        var next = hole;
+        while (true) {
+            next = (next + 1) & mask;
+            if (keys[next] == 0) {
+                break;
+            }
+
+            var home = slotOf(keys[next]);
+
+            // Move the entry if its home slot is not between the hole and
+            // where it currently sits
+            var between = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+            if (!between) {
+                keys[hole] = keys[next];
+                versions[hole] = versions[next];
+                times[hole] = times[next];
+                hole = next;
+            }
+        }
+
+        keys[hole] = 0;
+        --size;
+    }
+
+    /**
+     * @return true if the entry in slot was removed
+     */
+    private boolean expireAt(int slot, long now) {
+        if (keys[slot] == 0 || now - timeAt(slot) <= timeout) {
+            return false;
+        }
+
+        var server = toServer(keys[slot], versions[slot], timeAt(slot));
+        removeAt(slot);
+
+        if (server != null) {
+            onExpire.accept(server);
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized void tick(long now) {
+        var step = Math.max(1, (int) (keys.length * SWEEPS / timeout));
+
+        for (var i = 0; i < step; ++i) {
+            // A removal can shift another entry into this slot, look again
+            if (!expireAt(cursor, now)) {
+                cursor = (cursor + 1) & mask;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeInactive(long now) {
+        var slot = 0;
+        while (slot < keys.length) {
+            // A removal can shift another entry into this slot, look again
+            if (!expireAt(slot, now)) {
+                ++slot;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void forEach(Visitor visitor) {
+        for (var slot = 0; slot < keys.length; ++slot) {
+            var key = keys[slot];
+            if (key != 0) {
+                visitor.visit((int) (key >>> 16), (short) key, versions[slot], timeAt(slot));
+            }
+        }
+    }
+
+    /**
+     * @return time as seconds since base, clamped to what an int holds
+     */
+    private int pack(long time) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, time - base));
+    }
+
+    /**
+     * @return the time of the entry in slot in seconds since the epoch
+     */
+    private long timeAt(int slot) {
+        return base + times[slot];
+    }
+
+    private static Server toServer(long key, int version, long time) {
+        var ip = (int) (key >>> 16);
+        var bytes = new byte[]{(byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip};
+
+        try {
+            var server = new Server(InetAddress.getByAddress(bytes), (short) key, version);
+            server.setTime(time);
+            return server;
+        } catch (UnknownHostException ex) {
+            // Only thrown for a bad length
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized Collection<Server> servers() {
+        var list = new ArrayList<Server>(size);
+        for (var slot = 0; slot < keys.length; ++slot) {
+            if (keys[slot] != 0) {
+                var server = toServer(keys[slot], versions[slot], timeAt(slot));
+                if (server != null) {
+                    list.add(server);
+                }
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+}
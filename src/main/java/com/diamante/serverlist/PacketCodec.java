@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import java.nio.ByteOrder;
+
+/**
+ * Reads and writes the fields of every packet in place. Everything on the
+ * wire is LE, the VarHandles below take care of that without copying the
+ * bytes anywhere first.
+ *
+ * Master protocol (TCP):
+ * <pre>
+ * client query:     magic(4) version(4)
+ * server heartbeat: magic(4) version(4) net_port(2)
+ * list reply:       count(4) then count times ip(4) net_port(2)
+ * </pre>
+ *
+ * Query protocol (UDP):
+ * <pre>
+ * info query: magic(4) tick(4)
+ * info reply: magic(4) tick(4) players(4) sv_maxClients(4) ... infostring at 81
+ * </pre>
+ *
+ * @author Diamante
+ */
+public class PacketCodec {
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public static final int MAGIC_OFFSET = 0;
+    public static final int VERSION_OFFSET = 4;
+    public static final int NET_PORT_OFFSET = 8;
+
+    public static final int LIST_HEADER_LEN = 4;
+    public static final int LIST_ENTRY_LEN = 6;
+
+    public static final int TICK_OFFSET = 4;
+    public static final int PLAYERS_OFFSET = 8;
+    public static final int MAX_PLAYERS_OFFSET = 12;
+    public static final int INFO_STRING_OFFSET = 81;
+    public static final int INFO_STRING_LEN = 2048;
+
+    public static int readInt(byte[] data, int offset) {
+        return (int) INT.get(data, offset);
+    }
+
+    public static short readShort(byte[] data, int offset) {
+        return (short) SHORT.get(data, offset);
+    }
+
+    public static void writeInt(byte[] data, int offset, int value) {
+        INT.set(data, offset, value);
+    }
+
+    public static void writeShort(byte[] data, int offset, short value) {
+        SHORT.set(data, offset, value);
+    }
+
+    // Master protocol
+    public static int magic(byte[] packet) {
+        return readInt(packet, MAGIC_OFFSET);
+    }
+
+    public static int version(byte[] packet) {
+        return readInt(packet, VERSION_OFFSET);
+    }
+
+    public static short netPort(byte[] heartbeat) {
+        return readShort(heartbeat, NET_PORT_OFFSET);
+    }
+
+    /**
+     * @return the number of bytes written, Utils.PACKET_CLIENT_LEN
+     */
+    public static int writeClientQuery(byte[] dst, int magic, int version) {
+        writeInt(dst, MAGIC_OFFSET, magic);
+        writeInt(dst, VERSION_OFFSET, version);
+        return Utils.PACKET_CLIENT_LEN;
+    }
+
+    /**
+     * @return the number of bytes written, Utils.PACKET_SERVERT_LEN
+     */
+    public static int writeHeartbeat(byte[] dst, int version, short netPort) {
+        writeInt(dst, MAGIC_OFFSET, Utils.OLD_SERVER_MAGIC);
+        writeInt(dst, VERSION_OFFSET, version);
+        writeShort(dst, NET_PORT_OFFSET, netPort);
+        return Utils.PACKET_SERVERT_LEN;
+    }
+
+    public static int listCount(byte[] reply) {
+        return readInt(reply, 0);
+    }
+
+    public static void writeListCount(byte[] reply, int count) {
+        writeInt(reply, 0, count);
+    }
+
+    private static int entryOffset(int index) {
+        return LIST_HEADER_LEN + index * LIST_ENTRY_LEN;
+    }
+
+    /**
+     * The address is sent with its bytes flipped like every other field, so
+     * reading it as LE gives it back in the usual BE order
+     *
+     * @return the IPv4 address of entry index in BE
+     */
+    public static int listEntryIp(byte[] reply, int index) {
+        return readInt(reply, entryOffset(index));
+    }
+
+    public static short listEntryPort(byte[] reply, int index) {
+        return readShort(reply, entryOffset(index) + 4);
+    }
+
+    /**
+     * @param ip IPv4 address in BE
+     */
+    public static void writeListEntry(byte[] reply, int index, int ip, short netPort) {
+        var offset = entryOffset(index);
+        writeInt(reply, offset, ip);
+        writeShort(reply, offset + 4, netPort);
+    }
+
+    // Query protocol
+    /**
+     * @return the number of bytes written
+     */
+    public static int writeInfoQuery(byte[] dst, int tick) {
+        writeInt(dst, MAGIC_OFFSET, ClientEmulator.SERVER_QUERY);
+        writeInt(dst, TICK_OFFSET, tick);
+        return 8;
+    }
+
+    public static int infoTick(byte[] reply) {
+        return readInt(reply, TICK_OFFSET);
+    }
+
+    public static int infoPlayers(byte[] reply) {
+        return readInt(reply, PLAYERS_OFFSET);
+    }
+
+    public static int infoMaxPlayers(byte[] reply) {
+        return readInt(reply, MAX_PLAYERS_OFFSET);
+    }
+}
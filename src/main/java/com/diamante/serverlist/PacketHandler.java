@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Protocol logic of the master server. Shared by every engine so they only
+ * have to worry about moving bytes around.
+ *
+ * @author Diamante
+ */
+public class PacketHandler {
+
+    private final ServerList serverList;
+
+    // Null if probing is disabled
+    private final ProbeScheduler prober;
+
+    private final Metrics metrics;
+
+    private final AdmissionControl admission;
+
+    // Null if the metrics endpoint is disabled
+    private final MetricsServer metricsServer;
+
+    // Null if this master is not part of a cluster
+    private final ClusterGossip gossip;
+
+    // Null if heartbeats are only taken over TCP
+    private final UdpHeartbeatListener udpListener;
+
+    private final int port;
+
+    private final long readTimeout;
+
+    private final long writeTimeout;
+
+    // Entries per page of a list reply, 0 builds it as one array
+    private final int pageEntries;
+
+    public PacketHandler() {
+        this(new MasterConfig());
+    }
+
+    public PacketHandler(MasterConfig config) {
+        port = config.getPort();
+        readTimeout = config.getReadTimeout();
+        writeTimeout = config.getWriteTimeout();
+        pageEntries = config.getPageSize();
+
+        serverList = new ServerList(config.getStorage(), config.getMaxServers(), config.getMaxServersPerAddress());
+        if (config.getRegistryFile() != null) {
+            serverList.restore(config.getRegistryFile());
+        }
+        serverList.startExpiry();
+
+        metrics = new Metrics();
+        admission = new AdmissionControl(config.getConnectionRate(), config.getHeartbeatRate(), config.getQueryRate());
+        metrics.addGauge("master_registered_servers", "Servers on the list", serverList::size);
+        metrics.addGauge("master_expired_servers_total", "Servers removed because of inactivity", serverList::getExpired);
+        metrics.addGauge("master_evicted_servers_total", "Servers removed to stay within the registry caps", serverList::getEvicted);
+
+        var wheel = serverList.getExpiryWheel();
+        if (wheel != null) {
+            metrics.addGauge("master_expiry_ticks_total", "Seconds the expiry wheel processed", wheel::getTicks);
+            metrics.addGauge("master_expiry_tick_nanoseconds_total", "Time the expiry wheel spent processing its slots", wheel::getTickNanos);
+            metrics.addGauge("master_expiry_rescheduled_total", "Servers the expiry wheel found alive and pushed to a later slot", wheel::getRescheduled);
+        }
+        metrics.addGauge("log_dropped_records_total", "Log records dropped because the queue was full", Log::getDropped);
+
+        if (config.getProbeInterval() > 0) {
+            var cache = ProbeCache.create(config.getProbeCacheTtl());
+            prober = new ProbeScheduler(() -> new ClientEmulator(serverList.getServers(), metrics, cache).run(), config.getProbeInterval());
+
+            if (cache != null) {
+                metrics.addGauge("probe_cache_entries", "Probe results in the cache", cache::size);
+                metrics.addGauge("probe_cache_hits_total", "Servers a scan skipped because their result was fresh", cache::getHits);
+                metrics.addGauge("probe_cache_misses_total", "Servers a scan had to probe", cache::getMisses);
+            }
+
+            var sink = ProbeResultSink.shared();
+            metrics.addGauge("probe_results_written_total", "Probe results written to the sink", sink::getWritten);
+            metrics.addGauge("probe_results_dropped_total", "Probe results dropped because the sink could not keep up", sink::getDropped);
+        } else {
+            prober = null;
+        }
+
+        if (config.getMetricsPort() > 0) {
+            metricsServer = new MetricsServer(metrics, config.getMetricsPort());
+        } else {
+            metricsServer = null;
+        }
+
+        if (!config.getPeers().isEmpty()) {
+            var bind = new InetSocketAddress(config.getGossipAddress(), config.getGossipPort());
+            gossip = new ClusterGossip(serverList, metrics, bind, config.getPeers(), config.getGossipSecret());
+            serverList.setGossip(gossip);
+        } else {
+            gossip = null;
+        }
+
+        if (config.getUdpPort() > 0) {
+            udpListener = new UdpHeartbeatListener(this, config.getUdpPort());
+            metrics.addGauge("master_udp_malformed_total", "Datagrams on the heartbeat port that were not a heartbeat or had a bad cookie", udpListener::getMalformed);
+            metrics.addGauge("master_udp_challenges_total", "Challenges sent to servers heartbeating over UDP before they are listed", udpListener::getChallenges);
+        } else {
+            udpListener = null;
+        }
+    }
+
+    public void stop() {
+        serverList.stop();
+
+        if (prober != null) {
+            prober.stop();
+        }
+
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+
+        if (gossip != null) {
+            gossip.stop();
+        }
+
+        if (udpListener != null) {
+            udpListener.stop();
+        }
+    }
+
+    /**
+     * @return the TCP port the engine should listen on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return milliseconds a connection has to send a whole packet
+     */
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return milliseconds a connection has to take the whole reply
+     */
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public ServerList getServerList() {
+        return serverList;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Must be called by the engine right after accepting a connection, before
+     * reading anything from it
+     *
+     * @param from the address of the peer
+     * @return false if the connection should be closed right away
+     */
+    public boolean admit(InetAddress from) {
+        metrics.onAccept();
+
+        if (admission.tryAcquire(from, AdmissionControl.Kind.Connection)) {
+            return true;
+        }
+
+        metrics.onReject(AdmissionControl.Kind.Connection);
+        Log.debug("admit: %s is connecting too often", from);
+        return false;
+    }
+
+    /**
+     * @param from the address of the peer
+     * @param blob the raw bytes received from the peer
+     * @param length how many bytes of blob are valid
+     * @return the bytes to send back to the peer, in one or more pieces to
+     * send in order, or null if there is nothing to send
+     */
+    public byte[][] handlePacket(InetAddress from, byte[] blob, int length) {
+
+        if (length < Utils.PACKET_MIN_LEN) {
+            Log.warn("handlePacket: packetData.size() is less than %d bytes", Utils.PACKET_MIN_LEN);
+            return null;
+        }
+
+        byte[][] toSend = null;
+
+        var magicBE = PacketCodec.magic(blob);
+        var versionBE = PacketCodec.version(blob);
+        metrics.onPacket(magicBE, length);
+
+        if (Utils.isClientMagic(magicBE)) {
+            Log.debug("handlePacket: magic is of type client");
+
+            if (!admit(from, AdmissionControl.Kind.Query)) {
+                return null;
+            }
+
+            var before = System.nanoTime();
+            if (pageEntries > 0) {
+                toSend = serverList.createResponsePages(versionBE, pageEntries);
+            } else {
+                toSend = new byte[][]{serverList.createResponse(versionBE)};
+            }
+
+            var size = 0;
+            for (var page : toSend) {
+                size += page.length;
+            }
+            metrics.onQuery(versionBE, System.nanoTime() - before, size);
+        } else if (Utils.isServerMagic(magicBE)) {
+            Log.debug("handlePacket: magic is of type server");
+
+            if (!admit(from, AdmissionControl.Kind.Heartbeat)) {
+                return null;
+            }
+
+            if (length < Utils.PACKET_SERVERT_LEN) {
+                Log.warn("handlePacket: server packet is less than 10 bytes");
+                return null;
+            }
+
+            var portBE = PacketCodec.netPort(blob);
+            Log.debug("handlePacket: server %s has net_port %d", from, portBE);
+
+            var server = new Server(from, portBE, versionBE);
+            serverList.addServer(server);
+        } else {
+            Log.warn("handlePacket: magic is not recognized");
+        }
+
+        if (prober != null) {
+            prober.trigger();
+        }
+
+        return toSend;
+    }
+
+    private boolean admit(InetAddress from, AdmissionControl.Kind kind) {
+        if (admission.tryAcquire(from, kind)) {
+            return true;
+        }
+
+        metrics.onReject(kind);
+        Log.debug("handlePacket: %s is over its %s budget", from, kind);
+        return false;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * The last probe result of each server, keyed by address and net_port. A
+ * result is only used for ttl seconds, and past maxEntries the least
+ * recently used one is dropped. Scans skip the servers we have a fresh result
+ * for, so only new and stale servers go on the wire.
+ *
+ * @author Diamante
+ */
+public class ProbeCache {
+
+    // Seconds
+    public static final long DEFAULT_TTL = 60;
+
+    public static final int DEFAULT_MAX_ENTRIES = 16384;
+
+    private static class Entry {
+
+        private final JSONObject result;
+
+        // Milliseconds
+        private final long time;
+
+        private Entry(JSONObject result, long time) {
+            this.result = result;
+            this.time = time;
+        }
+    }
+
+    private final long ttl;
+
+    private final Map<InetSocketAddress, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param ttl seconds a result stays fresh
+     * @param maxEntries how many results to keep at most
+     */
+    public ProbeCache(long ttl, int maxEntries) {
+        this.ttl = ttl * 1000L;
+
+        // Access order, so the eldest entry is the least recently used one
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param ttl seconds a result stays fresh, 0 for no cache
+     * @return a cache warmed up from the probe result file or null if ttl is 0
+     */
+    public static ProbeCache create(long ttl) {
+        if (ttl <= 0) {
+            return null;
+        }
+
+        var cache = new ProbeCache(ttl, DEFAULT_MAX_ENTRIES);
+        cache.load(ProbeResultSink.getSharedPath());
+        return cache;
+    }
+
+    private static InetSocketAddress keyOf(Server server) {
+        return new InetSocketAddress(server.getAddress(), server.getNetPort() & 0xFFFF);
+    }
+
+    /**
+     * @return the result of server if it is still fresh, null otherwise
+     */
+    public synchronized JSONObject get(Server server) {
+        var key = keyOf(server);
+        var entry = entries.get(key);
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (System.currentTimeMillis() - entry.time > ttl) {
+            entries.remove(key);
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.result;
+    }
+
+    public void put(Server server, JSONObject result) {
+        put(keyOf(server), result, System.currentTimeMillis());
+    }
+
+    private synchronized void put(InetSocketAddress key, JSONObject result, long time) {
+        entries.put(key, new Entry(result, time));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Fills the cache from a file written by ProbeResultSink, so a new run
+     * does not have to probe servers an earlier one saw moments ago. Results
+     * that are already stale are skipped
+     *
+     * @param path an NDJSON file of probe results
+     */
+    public void load(String path) {
+        var now = System.currentTimeMillis();
+        var parser = new JSONParser();
+        var loaded = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject result;
+                try {
+                    result = (JSONObject) parser.parse(line);
+                } catch (ParseException | ClassCastException ex) {
+                    // Most likely the last line of a file that was cut short
+                    continue;
+                }
+
+                var time = result.get("time");
+                var key = parseKey(result.get("server"));
+                if (!(time instanceof Long) || key == null || now - (Long) time > ttl) {
+                    continue;
+                }
+
+                put(key, result, (Long) time);
+                ++loaded;
+            }
+        } catch (NoSuchFileException ex) {
+            return;
+        } catch (IOException ex) {
+            Log.error("ProbeCache: IOException while reading %s", path);
+            return;
+        }
+
+        Log.info("ProbeCache: loaded %d fresh results from %s", loaded, path);
+    }
+
+    /**
+     * @param server Server.toString(), host/ip:port
+     */
+    private static InetSocketAddress parseKey(Object server) {
+        if (!(server instanceof String)) {
+            return null;
+        }
+
+        var text = (String) server;
+        var slash = text.lastIndexOf('/');
+        var colon = text.lastIndexOf(':');
+        if (colon <= slash + 1) {
+            return null;
+        }
+
+        try {
+            // Only a literal address is left after the slash, no lookup here
+            var address = InetAddress.getByName(text.substring(slash + 1, colon));
+            return new InetSocketAddress(address, Short.parseShort(text.substring(colon + 1)) & 0xFFFF);
+        } catch (UnknownHostException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.IOException;
+
+import java.lang.management.ManagementFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pings many servers at once over a single non-blocking DatagramChannel.
+ * Probes go out in bursts, replies are matched to the probe by source address
+ * and tick, and each probe has its own deadline. A scan takes about as long
+ * as the slowest server instead of the sum of all of them.
+ *
+ * @author Diamante
+ */
+public class ProbeEngine {
+
+    public static final int DEFAULT_TIMEOUT = 4000;
+
+    // Probes waiting for a reply at the same time
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    // Probes sent before we look for replies again
+    private static final int BURST_SIZE = 32;
+
+    // Used as the first tick, every probe gets the next one
+    private static final AtomicInteger nextTick = new AtomicInteger((int) ManagementFactory.getRuntimeMXBean().getUptime());
+
+    /**
+     * Gets told what happened to each probe. Called from the thread running
+     * probe()
+     */
+    public interface Listener {
+
+        /**
+         * @param server the server that replied
+         * @param data the reply, ClientEmulator.SERVER_INFO_SIZE bytes long
+         * and zero padded
+         * @param length how many bytes the server actually sent
+         */
+        void onReply(Server server, byte[] data, int length);
+
+        default void onTimeout(Server server) {
+        }
+    }
+
+    /**
+     * Servers handed over while a probe() is already running, so probing can
+     * start before the whole list is known. Bounded, put() blocks while the
+     * engine is behind
+     */
+    public static class Feed {
+
+        private final BlockingQueue<Server> queue;
+
+        private volatile boolean closed;
+
+        // Set while probe() runs so it wakes up for new servers
+        private volatile Selector selector;
+
+        /**
+         * @param capacity servers that may wait to be probed at once
+         */
+        public Feed(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        public void put(Server server) throws InterruptedException {
+            queue.put(server);
+            wakeup();
+        }
+
+        /**
+         * No more servers are coming, probe() returns once the queued ones
+         * are done
+         */
+        public void close() {
+            closed = true;
+            wakeup();
+        }
+
+        private void wakeup() {
+            var selector = this.selector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Where run() takes the servers to probe from
+     */
+    private interface Source {
+
+        /**
+         * @return the next server or null if there is none right now
+         */
+        Server next();
+
+        /**
+         * @return true once no more servers will come
+         */
+        boolean isDone();
+    }
+
+    private static class Probe {
+
+        private final Server server;
+
+        private final int tick;
+
+        private final long deadline;
+
+        private Probe(Server server, int tick, long deadline) {
+            this.server = server;
+            this.tick = tick;
+            this.deadline = deadline;
+        }
+    }
+
+    private final int timeout;
+
+    private final int maxInFlight;
+
+    private final ByteBuffer request = ByteBuffer.allocate(8);
+
+    private final ByteBuffer reply = ByteBuffer.allocate(ClientEmulator.SERVER_INFO_SIZE);
+
+    public ProbeEngine() {
+        this(DEFAULT_TIMEOUT, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param timeout milliseconds to wait for each reply
+     * @param maxInFlight how many probes may wait for a reply at once
+     */
+    public ProbeEngine(int timeout, int maxInFlight) {
+        this.timeout = timeout;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Pings every server and returns once each one replied or timed out
+     *
+     * @param servers the servers to ping
+     * @param listener gets the results
+     */
+    public void probe(Iterable<Server> servers, Listener listener) {
+        try (var channel = DatagramChannel.open(); var selector = Selector.open()) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+
+            Iterator<Server> it = servers.iterator();
+            run(channel, selector, new Source() {
+                @Override
+                public Server next() {
+                    return it.hasNext() ? it.next() : null;
+                }
+
+                @Override
+                public boolean isDone() {
+                    return !it.hasNext();
+                }
+            }, listener);
+        } catch (IOException ex) {
+            Log.error("probe: IOException while setting up the DatagramChannel");
+        }
+    }
+
+    /**
+     * Pings servers as they come out of feed and returns once it is closed
+     * and each one replied or timed out
+     *
+     * @param feed where the servers to ping come from
+     * @param listener gets the results
+     */
+    public void probe(Feed feed, Listener listener) {
+        try (var channel = DatagramChannel.open(); var selector = Selector.open()) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+
+            feed.selector = selector;
+            run(channel, selector, new Source() {
+                @Override
+                public Server next() {
+                    return feed.queue.poll();
+                }
+
+                @Override
+                public boolean isDone() {
+                    // Read closed first, a server put before close() is
+                    // then already in the queue
+                    return feed.closed && feed.queue.isEmpty();
+                }
+            }, listener);
+        } catch (IOException ex) {
+            Log.error("probe: IOException while setting up the DatagramChannel");
+        } finally {
+            feed.selector = null;
+        }
+    }
+
+    private void run(DatagramChannel channel, Selector selector, Source toSend, Listener listener) throws IOException {
+        // Ordered by deadline because every probe gets the same timeout
+        var pending = new LinkedHashMap<SocketAddress, Probe>();
+
+        while (!toSend.isDone() || !pending.isEmpty()) {
+            var more = sendBurst(channel, toSend, pending);
+
+            // Without anything in flight we only wait for the feed, which
+            // wakes us up
+            var wait = 0L;
+            if (!pending.isEmpty()) {
+                var first = pending.values().iterator().next();
+                wait = Math.max(1, first.deadline - System.currentTimeMillis());
+            } else if (toSend.isDone()) {
+                break;
+            }
+
+            // Don't sleep while we still have room to send more
+            if (more && pending.size() < maxInFlight) {
+                selector.selectNow();
+            } else {
+                selector.select(wait);
+            }
+
+            selector.selectedKeys().clear();
+            receiveAll(channel, pending, listener);
+            expire(pending, listener);
+        }
+    }
+
+    /**
+     * @return false if the source ran dry, true if there may be more to send
+     */
+    private boolean sendBurst(DatagramChannel channel, Source toSend, Map<SocketAddress, Probe> pending) {
+        var sent = 0;
+        while (sent < BURST_SIZE && pending.size() < maxInFlight) {
+            var server = toSend.next();
+            if (server == null) {
+                return false;
+            }
+
+            // We use the net_port like a client would.
+            var to = new InetSocketAddress(server.getAddress(), server.getNetPort() & 0xFFFF);
+
+            if (pending.containsKey(to)) {
+                // Listed twice, one probe is enough
+                continue;
+            }
+
+            var tick = nextTick.getAndIncrement();
+            generateClientPing(tick);
+
+            try {
+                channel.send(request, to);
+                pending.put(to, new Probe(server, tick, System.currentTimeMillis() + timeout));
+                ++sent;
+            } catch (IOException | IllegalArgumentException | SecurityException ex) {
+                Log.warn("sendBurst: exception while sending a packet to %s", server);
+            }
+        }
+
+        return true;
+    }
+
+    private void generateClientPing(int tick) {
+        request.clear();
+        request.limit(PacketCodec.writeInfoQuery(request.array(), tick));
+    }
+
+    private void receiveAll(DatagramChannel channel, Map<SocketAddress, Probe> pending, Listener listener) throws IOException {
+        SocketAddress from;
+
+        reply.clear();
+        while ((from = channel.receive(reply)) != null) {
+            var length = reply.position();
+            var probe = pending.get(from);
+
+            // The server echoes the tick back, anything else is a late reply
+            // to an older probe
+            if (probe != null && length >= 8 && PacketCodec.infoTick(reply.array()) == probe.tick) {
+                pending.remove(from);
+                Log.debug("receiveAll: Server %s returned a packet", from);
+
+                var data = new byte[ClientEmulator.SERVER_INFO_SIZE];
+                System.arraycopy(reply.array(), 0, data, 0, length);
+                listener.onReply(probe.server, data, length);
+            } else {
+                Log.debug("receiveAll: ignoring unexpected packet from %s", from);
+            }
+
+            reply.clear();
+        }
+    }
+
+    private void expire(Map<SocketAddress, Probe> pending, Listener listener) {
+        var now = System.currentTimeMillis();
+        var it = pending.values().iterator();
+
+        while (it.hasNext()) {
+            var probe = it.next();
+            if (probe.deadline > now) {
+                // Everything after this one was sent later
+                break;
+            }
+
+            it.remove();
+            Log.info("expire: %s did not reply in time", probe.server);
+            listener.onTimeout(probe.server);
+        }
+    }
+}
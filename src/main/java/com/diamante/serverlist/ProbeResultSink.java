@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Appends probe results to a single NDJSON file, one JSON object per line.
+ * Results are queued and written by a background thread in large batches
+ * with one flush per batch. Once the file grows past maxSize it is renamed
+ * with a timestamp and a new one is started.
+ *
+ * @author Diamante
+ */
+public class ProbeResultSink {
+
+    public static final String DEFAULT_PATH = "probe_results.ndjson";
+
+    public static final long DEFAULT_MAX_SIZE = 64L << 20;
+
+    private static final int CAPACITY = 1 << 16;
+
+    // Records written between two flushes at most
+    private static final int BATCH_SIZE = 4096;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static String sharedPath = DEFAULT_PATH;
+
+    private static ProbeResultSink shared;
+
+    private final Path path;
+
+    private final long maxSize;
+
+    private final BlockingQueue<JSONObject> queue = new ArrayBlockingQueue<>(CAPACITY);
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private OutputStream out;
+
+    // Bytes in the current file
+    private long size;
+
+    /**
+     * Must be called before the first probe result comes in to have any
+     * effect
+     *
+     * @param path where shared() writes to
+     */
+    public static synchronized void setSharedPath(String path) {
+        sharedPath = path;
+    }
+
+    public static synchronized String getSharedPath() {
+        return sharedPath;
+    }
+
+    /**
+     * @return the sink every probe result goes to, opened on first use
+     */
+    public static synchronized ProbeResultSink shared() {
+        if (shared == null) {
+            shared = new ProbeResultSink(sharedPath, DEFAULT_MAX_SIZE);
+        }
+
+        return shared;
+    }
+
+    /**
+     * @param path the file to append to
+     * @param maxSize bytes after which the file is rotated
+     */
+    public ProbeResultSink(String path, long maxSize) {
+        this.path = Paths.get(path);
+        this.maxSize = maxSize;
+
+        var writer = new Thread(this::writeLoop, "ProbeResultSink");
+        writer.setDaemon(true);
+        writer.start();
+
+        // A scan can end right before we exit, don't lose it
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> write(null), "ProbeResultSink flush"));
+    }
+
+    /**
+     * Queues a record. Never blocks, the record is dropped if the writer can
+     * not keep up
+     *
+     * @return false if the record was dropped
+     */
+    public boolean append(JSONObject record) {
+        if (queue.offer(record)) {
+            return true;
+        }
+
+        dropped.increment();
+        return false;
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                write(queue.take());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes first and everything else queued so far, then flushes
+     *
+     * @param first already taken off the queue, may be null
+     */
+    private synchronized void write(JSONObject first) {
+        var batch = new ArrayList<JSONObject>(BATCH_SIZE);
+        if (first != null) {
+            batch.add(first);
+        }
+
+        do {
+            queue.drainTo(batch, BATCH_SIZE - batch.size());
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            try {
+                for (var record : batch) {
+                    var line = (record.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8);
+
+                    if (out == null || (size > 0 && size + line.length > maxSize)) {
+                        rotate();
+                    }
+
+                    out.write(line);
+                    size += line.length;
+                }
+
+                out.flush();
+                written.add(batch.size());
+            } catch (IOException ex) {
+                Log.error("ProbeResultSink: IOException while writing to %s, lost %d records", path, batch.size());
+                close();
+            }
+
+            batch.clear();
+        } while (!queue.isEmpty());
+    }
+
+    /**
+     * Moves a full file out of the way and opens a new one. On the first call
+     * an existing file is appended to instead
+     */
+    private void rotate() throws IOException {
+        if (out != null) {
+            close();
+
+            var name = path.getFileName().toString();
+            var dot = name.lastIndexOf('.');
+            var stamp = "-" + System.currentTimeMillis();
+            var rotated = dot < 0 ? name + stamp : name.substring(0, dot) + stamp + name.substring(dot);
+
+            Files.move(path, path.resolveSibling(rotated));
+            Log.info("ProbeResultSink: rotated %s to %s", path, rotated);
+        }
+
+        out = new BufferedOutputStream(new FileOutputStream(path.toFile(), true), BUFFER_SIZE);
+        size = Files.size(path);
+    }
+
+    private void close() {
+        if (out == null) {
+            return;
+        }
+
+        try {
+            out.close();
+        } catch (IOException ex) {
+            Log.error("ProbeResultSink: IOException in out.close()");
+        }
+
+        out = null;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+/**
+ * Runs scans of the server list on one long-lived thread. Any number of
+ * triggers that arrive while a scan is running or waiting collapse into a
+ * single scan, and two scans never start less than the interval apart.
+ *
+ * @author Diamante
+ */
+public class ProbeScheduler {
+
+    public static final long DEFAULT_INTERVAL = 30;
+
+    private final Runnable scan;
+
+    // Milliseconds between the start of two scans
+    private final long interval;
+
+    // Volatile so trigger can skip the lock while a scan is already pending
+    private volatile boolean requested;
+
+    private boolean stopped;
+
+    private final Thread thread;
+
+    /**
+     * @param scan what to run
+     * @param interval minimum seconds between the start of two scans
+     */
+    public ProbeScheduler(Runnable scan, long interval) {
+        this.scan = scan;
+        this.interval = interval * 1000L;
+
+        thread = new Thread(this::loop, "ProbeScheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Asks for a scan. Returns immediately. Called on every packet, so the
+     * common case of a scan already pending doesn't touch the lock
+     */
+    public void trigger() {
+        if (requested) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!requested) {
+                requested = true;
+                notifyAll();
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+        thread.interrupt();
+    }
+
+    private synchronized boolean awaitRequest() throws InterruptedException {
+        while (!requested && !stopped) {
+            wait();
+        }
+
+        requested = false;
+        return !stopped;
+    }
+
+    private void loop() {
+        var lastStart = System.currentTimeMillis() - interval;
+
+        try {
+            while (awaitRequest()) {
+                var wait = lastStart + interval - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+
+                if (!Main.running.get()) {
+                    return;
+                }
+
+                lastStart = System.currentTimeMillis();
+
+                try {
+                    scan.run();
+                } catch (RuntimeException ex) {
+                    Log.error("ProbeScheduler: RuntimeException while scanning");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
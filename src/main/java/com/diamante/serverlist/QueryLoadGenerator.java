@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress test for a master server. Many clients ask for the server list at
+ * once, either at a fixed rate or each one as soon as its last reply is in.
+ * Every reply is read to the end and checked against its header.
+ *
+ * @author Diamante
+ */
+public class QueryLoadGenerator {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private static final int READ_TIMEOUT = 5000;
+
+    private final InetSocketAddress target;
+
+    private final int clients;
+
+    // Queries per second over all clients, 0 for a closed loop
+    private final double rate;
+
+    // Seconds
+    private final long duration;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder entries = new LongAdder();
+
+    private final LongAdder connectErrors = new LongAdder();
+
+    private final LongAdder readErrors = new LongAdder();
+
+    private final LongAdder invalidReplies = new LongAdder();
+
+    /**
+     * @param target the master server
+     * @param clients how many clients query at once
+     * @param rate queries per second over all of them, 0 for as fast as the
+     * master answers
+     * @param duration seconds to run for
+     */
+    public QueryLoadGenerator(InetSocketAddress target, int clients, double rate, long duration) {
+        this.target = target;
+        this.clients = clients;
+        this.rate = rate;
+        this.duration = duration;
+    }
+
+    public void run() {
+        Log.info("QueryLoadGenerator: %d clients, %s to %s for %d s",
+                clients, rate > 0 ? String.format("%.0f queries/s", rate) : "closed loop", target, duration);
+
+        var start = System.nanoTime();
+        var end = start + duration * 1000000000L;
+
+        var threads = new ArrayList<Thread>();
+        for (var i = 0; i < clients; ++i) {
+            var index = i;
+            var thread = new Thread(() -> query(index, start, end), "QueryLoadGenerator-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        var lastCompleted = 0L;
+        while (System.nanoTime() < end && Main.running.get()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            var total = completed.sum();
+            Log.info("QueryLoadGenerator: %d/s, %d errors", total - lastCompleted, errors());
+            lastCompleted = total;
+        }
+
+        for (var thread : threads) {
+            try {
+                thread.join(CONNECT_TIMEOUT + READ_TIMEOUT);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Sends queries for one client at rate / clients per second
+     */
+    private void query(int index, long start, long end) {
+        var request = new byte[Utils.PACKET_CLIENT_LEN];
+        PacketCodec.writeClientQuery(request, Utils.NEW_CLIENT_MAGIC, Utils.CLIENT_VERSION);
+
+        // Grows if the list ever gets longer than this
+        var reply = new byte[PacketCodec.LIST_HEADER_LEN + 0x1000 * PacketCodec.LIST_ENTRY_LEN];
+
+        var interval = rate > 0 ? (long) (clients * 1e9 / rate) : 0;
+        var next = start + (long) (interval * (index / (double) clients));
+
+        while (Main.running.get()) {
+            var now = System.nanoTime();
+            if (now >= end || next >= end) {
+                return;
+            }
+
+            if (next > now) {
+                try {
+                    Thread.sleep((next - now) / 1000000L, (int) ((next - now) % 1000000L));
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+
+            // With a fixed rate a slow reply also delays the queries queued
+            // up behind it, so count from when the query should have gone out
+            var scheduled = interval > 0 ? next : System.nanoTime();
+            next += interval;
+            reply = query(request, reply, scheduled);
+        }
+    }
+
+    /**
+     * @return reply, or a bigger copy of it if the list did not fit
+     */
+    private byte[] query(byte[] request, byte[] reply, long scheduled) {
+        try (var socket = new Socket()) {
+            try {
+                socket.connect(target, CONNECT_TIMEOUT);
+            } catch (IOException ex) {
+                connectErrors.increment();
+                return reply;
+            }
+
+            var length = 0;
+            try {
+                socket.setSoTimeout(READ_TIMEOUT);
+                socket.getOutputStream().write(request);
+
+                // The master closes the connection once the list is out
+                var input = socket.getInputStream();
+                int count;
+                while ((count = input.read(reply, length, reply.length - length)) != -1) {
+                    length += count;
+                    if (length == reply.length) {
+                        reply = Arrays.copyOf(reply, reply.length * 2);
+                    }
+                }
+            } catch (IOException ex) {
+                readErrors.increment();
+                return reply;
+            }
+
+            latency.record(System.nanoTime() - scheduled);
+
+            var listed = MasterServerPinger.validateReply(reply, length);
+            if (listed < 0) {
+                invalidReplies.increment();
+                return reply;
+            }
+
+            entries.add(listed);
+            completed.increment();
+        } catch (IOException ex) {
+            // Only close() can get us here, the reply is in already
+        }
+
+        return reply;
+    }
+
+    private long errors() {
+        return connectErrors.sum() + readErrors.sum() + invalidReplies.sum();
+    }
+
+    private void report(double seconds) {
+        var total = completed.sum();
+        Log.info("QueryLoadGenerator: %d valid replies in %.1f s, %.1f queries/s", total, seconds, total / seconds);
+        Log.info("QueryLoadGenerator: %s", latency.summary());
+        Log.info("QueryLoadGenerator: %.1f servers per reply", total > 0 ? entries.sum() / (double) total : 0.0);
+        Log.info("QueryLoadGenerator: %d connect errors, %d read errors, %d invalid replies",
+                connectErrors.sum(), readErrors.sum(), invalidReplies.sum());
+    }
+}
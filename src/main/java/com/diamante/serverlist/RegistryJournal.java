@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the registry on disk so a restarted master has a full list right
+ * away. A binary snapshot of every entry is written every few seconds and
+ * every join and removal in between goes to an append-only journal that is
+ * memory-mapped, so appending is a plain memory write. Taking a snapshot
+ * starts a new journal. Heartbeats are not written down, a server that
+ * stopped sending them is left out on restore by its time anyway, but a
+ * server that was evicted or replaced still has a recent time so its removal
+ * has to be.
+ *
+ * Both files are LE like the wire. Snapshot:
+ * <pre>
+ * magic(4) format(4) epoch(8) count(4) then count times ip(4) net_port(2) version(4) time(8)
+ * </pre>
+ *
+ * Journal:
+ * <pre>
+ * magic(4) format(4) epoch(8) then type(1) ip(4) net_port(2) version(4) time(8) until type is 0
+ * </pre>
+ *
+ * A journal belongs to the snapshot with the same epoch, or to the one before
+ * it if a crash came between writing a snapshot and starting its journal.
+ * Replaying records the snapshot already has is harmless, they are applied in
+ * order. The type byte of a record is written last so a record cut short by
+ * a crash reads as the end of the journal.
+ *
+ * @author Diamante
+ */
+public class RegistryJournal {
+
+    private static final int SNAPSHOT_MAGIC = 0x534C534E; // SLSN
+
+    private static final int JOURNAL_MAGIC = 0x534C4A4E; // SLJN
+
+    private static final int FORMAT = 1;
+
+    private static final int HEADER_LEN = 16;
+
+    private static final int ENTRY_LEN = 18;
+
+    private static final int RECORD_LEN = 1 + ENTRY_LEN;
+
+    private static final byte JOIN = 1;
+
+    // Removed because of inactivity, here or on another node
+    private static final byte EXPIRE = 2;
+
+    // Evicted to stay within the caps or replaced by another version
+    private static final byte REMOVE = 3;
+
+    // About 220000 records, far more than joins between two snapshots
+    private static final int JOURNAL_SIZE = 4 << 20;
+
+    private final Path snapshotPath;
+
+    private final Path journalPath;
+
+    private final ServerStore store;
+
+    // Held for a whole snapshot so two never overlap. Appends only take the
+    // monitor of the journal itself, which is never held during file I/O
+    private final Object snapshotLock = new Object();
+
+    private MappedByteBuffer journal;
+
+    private long epoch;
+
+    // Everything after this is zero
+    private int dirty;
+
+    private boolean full;
+
+    /**
+     * @param path prefix of the files, .snapshot and .journal are appended
+     * @param store the registry to persist
+     */
+    public RegistryJournal(String path, ServerStore store) {
+        this.snapshotPath = Paths.get(path + ".snapshot");
+        this.journalPath = Paths.get(path + ".journal");
+        this.store = store;
+    }
+
+    /**
+     * Reads the last snapshot and replays its journal on top of it
+     *
+     * @param now the current time in seconds
+     * @param timeout seconds without a heartbeat before a server is left out
+     * @return the servers that are still active, with their last known time
+     */
+    public synchronized Collection<Server> restore(long now, long timeout) {
+        var servers = new LinkedHashMap<Server, Server>();
+
+        try {
+            var snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotPath)).order(ByteOrder.LITTLE_ENDIAN);
+            if (snapshot.getInt() == SNAPSHOT_MAGIC && snapshot.getInt() == FORMAT) {
+                epoch = snapshot.getLong();
+
+                var count = snapshot.getInt();
+                for (var i = 0; i < count; ++i) {
+                    var server = readEntry(snapshot);
+                    if (server != null) {
+                        servers.put(server, server);
+                    }
+                }
+            } else {
+                Log.warn("RegistryJournal: %s is not a snapshot, ignoring it", snapshotPath);
+            }
+        } catch (NoSuchFileException ex) {
+            // First start
+        } catch (IOException | BufferUnderflowException ex) {
+            Log.error("RegistryJournal: could not read %s", snapshotPath);
+        }
+
+        try {
+            map();
+
+            var journalEpoch = journal.getLong(8);
+            if (journal.getInt(0) == JOURNAL_MAGIC && journal.getInt(4) == FORMAT && (journalEpoch == epoch || journalEpoch == epoch - 1)) {
+                epoch = journalEpoch;
+                journal.position(HEADER_LEN);
+
+                while (journal.remaining() >= RECORD_LEN) {
+                    var type = journal.get(journal.position());
+                    if (type != JOIN && type != EXPIRE && type != REMOVE) {
+                        break;
+                    }
+
+                    journal.position(journal.position() + 1);
+                    var server = readEntry(journal);
+                    if (server == null) {
+                        continue;
+                    }
+
+                    if (type == JOIN) {
+                        servers.put(server, server);
+                    } else {
+                        servers.remove(server);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            Log.error("RegistryJournal: could not map %s", journalPath);
+        }
+
+        servers.values().removeIf(server -> now - server.getTime() > timeout);
+        return servers.values();
+    }
+
+    /**
+     * Reads ip(4) net_port(2) version(4) time(8), also used by ClusterGossip
+     *
+     * @return the server or null if it can't be one
+     */
+    static Server readEntry(ByteBuffer in) {
+        var ip = in.getInt();
+        var netPort = in.getShort();
+        var version = in.getInt();
+        var time = in.getLong();
+
+        try {
+            var address = InetAddress.getByAddress(new byte[]{(byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip});
+            var server = new Server(address, netPort, version);
+            server.setTime(time);
+            return server;
+        } catch (UnknownHostException ex) {
+            return null;
+        }
+    }
+
+    private void map() throws IOException {
+        if (journal != null) {
+            return;
+        }
+
+        try (var channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, JOURNAL_SIZE);
+            journal.order(ByteOrder.LITTLE_ENDIAN);
+            dirty = JOURNAL_SIZE;
+        }
+    }
+
+    /**
+     * Writes every entry of the store to a new snapshot and starts a new
+     * journal for it. Appends go on while the file is written, only the
+     * switch to the new journal at the end holds them up
+     */
+    public void snapshot() {
+        synchronized (snapshotLock) {
+            long next;
+            int mark;
+            synchronized (this) {
+                try {
+                    map();
+                } catch (IOException ex) {
+                    Log.error("RegistryJournal: could not map %s", journalPath);
+                    return;
+                }
+
+                next = epoch + 1;
+                mark = Math.max(journal.position(), HEADER_LEN);
+            }
+
+            // Everything appended before mark is in the store by now. What is
+            // appended after it may or may not make it into the copy, so it
+            // is carried over to the new journal
+            var writer = new SnapshotWriter(store.size());
+            writer.out.putInt(SNAPSHOT_MAGIC).putInt(FORMAT).putLong(next).putInt(0);
+            store.forEach(writer);
+            writer.out.putInt(HEADER_LEN, writer.count);
+            writer.out.flip();
+
+            var temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+            try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (writer.out.hasRemaining()) {
+                    channel.write(writer.out);
+                }
+                channel.force(false);
+            } catch (IOException ex) {
+                Log.error("RegistryJournal: could not write %s", temp);
+                return;
+            }
+
+            try {
+                Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                Log.error("RegistryJournal: could not replace %s", snapshotPath);
+                return;
+            }
+
+            synchronized (this) {
+                rotate(next, mark);
+            }
+
+            Log.debug("RegistryJournal: wrote a snapshot of %d servers", writer.count);
+        }
+    }
+
+    /**
+     * Starts the journal of a new snapshot with the records appended after
+     * mark. Only clears what was written so we don't touch every page each
+     * time
+     */
+    private void rotate(long next, int mark) {
+        var end = journal.position() < HEADER_LEN ? mark : journal.position();
+        var carried = end - mark;
+
+        for (var i = 0; i < carried; ++i) {
+            journal.put(HEADER_LEN + i, journal.get(mark + i));
+        }
+        for (var i = HEADER_LEN + carried; i < dirty; ++i) {
+            journal.put(i, (byte) 0);
+        }
+
+        epoch = next;
+        journal.putInt(0, JOURNAL_MAGIC).putInt(4, FORMAT).putLong(8, epoch);
+        journal.position(HEADER_LEN + carried);
+        dirty = HEADER_LEN + carried;
+        full = false;
+    }
+
+    /**
+     * Grows as needed, the store can change while we go through it
+     */
+    private static class SnapshotWriter implements ServerStore.Visitor {
+
+        private ByteBuffer out;
+
+        private int count;
+
+        private SnapshotWriter(int expected) {
+            out = ByteBuffer.allocate(HEADER_LEN + 4 + expected * ENTRY_LEN).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public void visit(int ip, short netPort, int version, long time) {
+            if (out.remaining() < ENTRY_LEN) {
+                var bigger = ByteBuffer.allocate(out.capacity() * 2 + ENTRY_LEN).order(ByteOrder.LITTLE_ENDIAN);
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+
+            out.putInt(ip).putShort(netPort).putInt(version).putLong(time);
+            ++count;
+        }
+    }
+
+    public void join(Server server) {
+        append(JOIN, server);
+    }
+
+    /**
+     * Safe to call with the store locked, the journal is never locked while
+     * the store is
+     */
+    public void expire(Server server) {
+        append(EXPIRE, server);
+    }
+
+    /**
+     * Safe to call with the store locked, like expire
+     */
+    public void remove(Server server) {
+        append(REMOVE, server);
+    }
+
+    private synchronized void append(byte type, Server server) {
+        // Not restored yet or the journal could not be mapped
+        if (journal == null || journal.position() < HEADER_LEN) {
+            return;
+        }
+
+        if (journal.remaining() < RECORD_LEN) {
+            // Not worth stalling a heartbeat on a snapshot. The store already
+            // has the change so the next snapshot picks it up
+            if (!full) {
+                full = true;
+                Log.warn("RegistryJournal: %s is full until the next snapshot", journalPath);
+            }
+            return;
+        }
+
+        var address = server.getAddress().getAddress();
+        if (address.length != 4) {
+            return;
+        }
+
+        var position = journal.position();
+        journal.putInt(position + 1, Utils.bytesToInt(address));
+        journal.putShort(position + 5, server.getNetPort());
+        journal.putInt(position + 7, server.getVersion());
+        journal.putLong(position + 11, server.getTime());
+        journal.put(position, type);
+        journal.position(position + RECORD_LEN);
+        dirty = Math.max(dirty, journal.position());
+    }
+
+    /**
+     * Writes a last snapshot so the next start does not need the journal
+     */
+    public void close() {
+        snapshot();
+
+        synchronized (this) {
+            if (journal != null) {
+                journal.force();
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.InetAddress;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caps how many servers the registry holds in total and per address. Keeps
+ * every registered server in line twice, once in a line of all of them and
+ * once in a line per address, in the order they joined.
+ *
+ * A heartbeat only bumps a counter on its entry, without a lock. Eviction
+ * looks at the head of a line and sends an entry that was heartbeated since
+ * it got there to the back instead of evicting it, so what goes is the one
+ * that went longest without a heartbeat, give or take one lap. Only joins
+ * and removals take the lock, they are far rarer than heartbeats. An
+ * eviction looks at MAX_SCAN entries at most, so a join never holds the lock
+ * for long however many servers were heartbeated.
+ *
+ * Only decides what to evict, ServerList removes it from the store.
+ *
+ * @author Diamante
+ */
+public class RegistryLimits {
+
+    // About 96 KB of list reply
+    public static final int DEFAULT_MAX_SERVERS = 16384;
+
+    public static final int DEFAULT_MAX_SERVERS_PER_ADDRESS = 32;
+
+    // Entries an eviction gives another lap at most before it takes the head
+    // anyway
+    private static final int MAX_SCAN = 64;
+
+    /**
+     * A server in both lines
+     */
+    private static class Entry {
+
+        private final Server server;
+
+        // Bumped on every heartbeat, lost updates don't matter as long as it
+        // changes
+        private volatile int touches;
+
+        // touches when the entry was last put at the back of each line
+        private int seen;
+
+        private int seenLocal;
+
+        private Entry(Server server) {
+            this.server = server;
+        }
+    }
+
+    private final int maxServers;
+
+    private final int maxPerAddress;
+
+    // Heartbeats look their entry up here without the lock
+    private final Map<Server, Entry> entries = new ConcurrentHashMap<>();
+
+    // Insertion order, only touched under the lock
+    private final LinkedHashMap<Server, Entry> servers = new LinkedHashMap<>();
+
+    private final Map<InetAddress, LinkedHashMap<Server, Entry>> byAddress = new HashMap<>();
+
+    /**
+     * A cap of 0 means no cap
+     *
+     * @param maxServers servers in the registry at most
+     * @param maxPerAddress servers with the same address at most
+     */
+    public RegistryLimits(int maxServers, int maxPerAddress) {
+        this.maxServers = maxServers;
+        this.maxPerAddress = maxPerAddress;
+    }
+
+    /**
+     * Records a server that just joined. The caller must check afterwards
+     * that it is still stored and forget it otherwise, an expiry can remove
+     * it before this runs
+     *
+     * @return the servers to evict to make room for it, never server itself
+     */
+    public synchronized List<Server> add(Server server) {
+        if (entries.containsKey(server)) {
+            touch(server);
+            return Collections.emptyList();
+        }
+
+        var entry = new Entry(server);
+        entries.put(server, entry);
+        servers.put(server, entry);
+
+        var victims = new ArrayList<Server>(1);
+
+        var local = byAddress.computeIfAbsent(server.getAddress(), key -> new LinkedHashMap<>(4));
+        local.put(server, entry);
+        if (maxPerAddress > 0 && local.size() > maxPerAddress) {
+            victims.add(remove(oldest(local, true, entry)));
+        }
+
+        if (maxServers > 0 && servers.size() > maxServers) {
+            victims.add(remove(oldest(servers, false, entry)));
+        }
+
+        return victims;
+    }
+
+    /**
+     * Marks server as heartbeated, never blocks
+     */
+    public void touch(Server server) {
+        var entry = entries.get(server);
+        if (entry != null) {
+            entry.touches = entry.touches + 1;
+        }
+    }
+
+    /**
+     * Forgets a server that left the registry some other way
+     */
+    public synchronized void forget(Server server) {
+        if (entries.containsKey(server)) {
+            remove(server);
+        }
+    }
+
+    /**
+     * Goes along line from its head and gives every entry heartbeated since
+     * it was queued another lap, up to MAX_SCAN of them
+     *
+     * @param local true for a line per address
+     * @param spare the entry that just joined, never picked
+     * @return the entry to evict
+     */
+    private static Server oldest(LinkedHashMap<Server, Entry> line, boolean local, Entry spare) {
+        // Then the head goes even if it was just touched
+        for (var scan = Math.min(line.size(), MAX_SCAN); scan > 0; --scan) {
+            var head = line.values().iterator().next();
+
+            var touches = head.touches;
+            var seen = local ? head.seenLocal : head.seen;
+            if (head != spare && touches == seen) {
+                return head.server;
+            }
+
+            if (local) {
+                head.seenLocal = touches;
+            } else {
+                head.seen = touches;
+            }
+
+            line.remove(head.server);
+            line.put(head.server, head);
+        }
+
+        var head = line.values().iterator().next();
+        if (head == spare) {
+            line.remove(head.server);
+            line.put(head.server, head);
+            head = line.values().iterator().next();
+        }
+
+        return head.server;
+    }
+
+    private Server remove(Server server) {
+        entries.remove(server);
+        servers.remove(server);
+
+        var local = byAddress.get(server.getAddress());
+        if (local != null) {
+            local.remove(server);
+            if (local.isEmpty()) {
+                byAddress.remove(server.getAddress());
+            }
+        }
+
+        return server;
+    }
+}
@@ -30,48 +30,47 @@ import java.net.UnknownHostException;
  */
 public class ServerEmulator {
 
-    private static final String OFFICIAL_MASTER = "mw3.totalkillaz.ovh";
+    public static final String OFFICIAL_MASTER = "mw3.totalkillaz.ovh";
     
     private Socket socket;
 
     private int currentPort;
 
+    // Reused for every heartbeat
+    private final byte[] request = new byte[Utils.PACKET_SERVERT_LEN];
+
     private boolean valid;
 
     public ServerEmulator() {
+        this(OFFICIAL_MASTER, MasterServer.PORT);
+    }
+
+    public ServerEmulator(String host, int port) {
         try {
-            var ip = InetAddress.getByName(OFFICIAL_MASTER);
-            socket = new Socket(ip, MasterServer.PORT);
+            var ip = InetAddress.getByName(host);
+            socket = new Socket(ip, port);
             currentPort = 0;
             valid = true;
         }
         catch (UnknownHostException ex) {
             valid = false;
-            System.err.println("ServerEmulator: UnknownHostException in InetAddress.getByName()");
+            Log.error("ServerEmulator: UnknownHostException in InetAddress.getByName()");
         }
         catch (IOException ex) {
             valid = false;
-            System.err.println("ServerEmulator: IOException in new Socket()");
+            Log.error("ServerEmulator: IOException in new Socket()");
         }
     }
 
     public void pingMasterServer(int port, OutputStream out) {
-        var request = new byte[Utils.PACKET_SERVERT_LEN];
-
-        var magicLE = Utils.longSwap(Utils.OLD_SERVER_MAGIC);
-        var versionLE = Utils.longSwap(Utils.CLIENT_VERSION);
-        var portLE = Utils.longSwap(port);
-
-        System.arraycopy(magicLE, 0, request, 0, 4);
-        System.arraycopy(versionLE, 0, request, 4, 4);
-        // Write only two bytes for the port
-        System.arraycopy(portLE, 0, request, 8, 2);
+        // Only two bytes for the port
+        PacketCodec.writeHeartbeat(request, Utils.CLIENT_VERSION, (short) port);
 
         try {
             out.write(request);
         }
         catch (IOException ex) {
-            System.err.println("pingMasterServer: IOException in out.write()");
+            Log.error("pingMasterServer: IOException in out.write()");
             setValid(false);
         }
     }
@@ -86,7 +85,7 @@ public class ServerEmulator {
                 pingMasterServer(port, out);
             }
             catch (IOException ex) {
-                System.err.println("pingLoop: IOException in socket.getOutputStream()");
+                Log.error("pingLoop: IOException in socket.getOutputStream()");
             }
 
             try {
@@ -110,7 +109,7 @@ public class ServerEmulator {
             socket.close();
         }
         catch (IOException ex) {
-            System.err.println("stop: IOException in socket.close()");
+            Log.error("stop: IOException in socket.close()");
         }
     }
 
@@ -16,13 +16,16 @@
  */
 package com.diamante.serverlist;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.ByteBuffer;
-
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -30,122 +33,572 @@ import java.util.Set;
  */
 public class ServerList {
 
-    private final Set<Server> serverList;
+    /**
+     * How the registered servers are kept in memory
+     */
+    public enum Storage {
+        Hash, Packed;
+    }
+
+    private final ServerStore serverList;
+
+    /**
+     * A response we already built for a version
+     */
+    private static class CachedResponse {
+
+        private final long generation;
+
+        private final byte[][] pages;
+
+        private CachedResponse(long generation, byte[][] pages) {
+            this.generation = generation;
+            this.pages = pages;
+        }
+    }
+
+    // Any client can send any version, so only this many are cached at once
+    private static final int MAX_CACHED_VERSIONS = 16;
+
+    // What a version nobody registered with gets, never cached
+    private static final byte[] EMPTY_RESPONSE = new byte[PacketCodec.LIST_HEADER_LEN];
+
+    // Servers registered per version, so a query for any other version is
+    // answered without walking the store. Only versions in use are kept
+    private final Map<Integer, Integer> registeredVersions;
+
+    private final Map<Integer, CachedResponse> responses;
+
+    private final Map<Integer, CachedResponse> pagedResponses;
+
+    // Bumped every time the content of the list changes
+    private final AtomicLong generation;
+
+    // Seconds without a heartbeat before a server is removed
+    public static final long INACTIVE_TIMEOUT = 60;
+
+    private final AtomicLong expired;
+
+    private final AtomicLong evicted;
+
+    // Null if the registry may grow without limit
+    private final RegistryLimits limits;
+
+    // Seconds between two snapshots of the registry
+    private static final long SNAPSHOT_INTERVAL = 10;
+
+    private ScheduledExecutorService expiryThread;
+
+    // Null if the registry is not kept on disk
+    private RegistryJournal journal;
+
+    // Null if this master is not part of a cluster
+    private volatile ClusterGossip gossip;
 
     public ServerList() {
-        serverList = Collections.synchronizedSet(new HashSet<>());
+        this(Storage.Hash);
     }
 
-    public boolean isServerRegistered(Server server) {
-        synchronized (serverList) {
-            var it = serverList.iterator(); // Must be in the synchronized block
-            while (it.hasNext()) {
-                var other = it.next();
-                if (server.equals(other)) {
-                    // Update the time so we don't accidentally remove the server
-                    other.updateTime();
-                    return true;
-                }
+    public ServerList(Storage storage) {
+        this(storage, 0, 0);
+    }
+
+    /**
+     * A cap of 0 means no cap
+     *
+     * @param storage how to keep the servers in memory
+     * @param maxServers servers on the list at most
+     * @param maxPerAddress servers with the same address at most
+     */
+    public ServerList(Storage storage, int maxServers, int maxPerAddress) {
+        responses = new ConcurrentHashMap<>();
+        pagedResponses = new ConcurrentHashMap<>();
+        registeredVersions = new ConcurrentHashMap<>();
+        generation = new AtomicLong();
+        expired = new AtomicLong();
+        evicted = new AtomicLong();
+        limits = maxServers > 0 || maxPerAddress > 0 ? new RegistryLimits(maxServers, maxPerAddress) : null;
+
+        if (storage == Storage.Packed) {
+            serverList = new PackedServerStore(INACTIVE_TIMEOUT, this::onExpire, this::onReplace);
+        } else {
+            serverList = new HashServerStore(INACTIVE_TIMEOUT, this::onExpire);
+        }
+    }
+
+    /**
+     * Starts removing inactive servers in the background
+     */
+    public void startExpiry() {
+        expiryThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "ServerList expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        expiryThread.scheduleAtFixedRate(() -> serverList.tick(System.currentTimeMillis() / 1000L), 1, 1, TimeUnit.SECONDS);
+
+        if (journal != null) {
+            expiryThread.scheduleWithFixedDelay(journal::snapshot, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Restores the registry from disk and keeps it there from now on. Must be
+     * called before startExpiry()
+     *
+     * @param path prefix of the snapshot and journal files
+     */
+    public void restore(String path) {
+        var before = System.nanoTime();
+
+        journal = new RegistryJournal(path, serverList);
+        var restored = journal.restore(System.currentTimeMillis() / 1000L, INACTIVE_TIMEOUT);
+        for (var server : restored) {
+            if (serverList.upsert(server)) {
+                joined(server);
+                limit(server);
             }
         }
 
-        return false;
+        invalidateResponses();
+        journal.snapshot();
+
+        Log.info("ServerList: restored %d servers from %s in %.1f ms", restored.size(), path, (System.nanoTime() - before) / 1e6);
+    }
+
+    public void stop() {
+        if (expiryThread != null) {
+            expiryThread.shutdownNow();
+        }
+
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Every join, heartbeat and expiry from now on is passed on to gossip
+     */
+    public void setGossip(ClusterGossip gossip) {
+        this.gossip = gossip;
+    }
+
+    public boolean isServerRegistered(Server server) {
+        return serverList.refresh(server);
+    }
+
+    /**
+     * Like isServerRegistered but does not count as a heartbeat
+     */
+    public boolean containsServer(Server server) {
+        return serverList.contains(server);
     }
 
     public void addServer(Server server) {
 
-        if (!isServerRegistered(server)) {
-            serverList.add(server);
+        if (serverList.upsert(server)) {
+            joined(server);
+            limit(server);
+            invalidateResponses();
+
+            if (journal != null) {
+                journal.join(server);
+            }
+        } else if (limits != null) {
+            limits.touch(server);
         }
 
-        System.out.println(String.format("addServer: Tried to add server %s", server.toString()));
+        var gossip = this.gossip;
+        if (gossip != null) {
+            gossip.heartbeat(server);
+        }
+
+        Log.debug("addServer: Tried to add server %s", server);
     }
 
-    public void removeInactive() {
-        synchronized (serverList) {
-            var it = serverList.iterator();
-            var time = System.currentTimeMillis() / 1000L;
-
-            while (it.hasNext()) {
-                var server = it.next();
-                if (time - server.getTime() > 60) {
-                    System.out.println(String.format("Removing server %s because of inactivity", server.getAddress().toString()));
-                    it.remove();
+    /**
+     * Adds a server another node of the cluster knows of. Unlike addServer
+     * its time is kept and it is not passed on again
+     */
+    public void mergeServer(Server server) {
+        if (serverList.merge(server)) {
+            joined(server);
+            limit(server);
+            invalidateResponses();
+
+            if (journal != null) {
+                journal.join(server);
+            }
+        } else if (limits != null) {
+            limits.touch(server);
+        }
+    }
+
+    /**
+     * Evicts whatever has to go now that server joined. The list can be
+     * over its caps for as long as this takes
+     */
+    private void limit(Server server) {
+        if (limits == null) {
+            return;
+        }
+
+        var victims = limits.add(server);
+
+        // An expiry that removed it before add() ran found nothing to forget.
+        // One that removes it from now on forgets it after add(), so this
+        // check is enough and needs no lock around both
+        if (!serverList.contains(server)) {
+            limits.forget(server);
+        }
+
+        for (var victim : victims) {
+            if (serverList.remove(victim, Long.MAX_VALUE)) {
+                Log.info("Evicting server %s to make room for %s", victim, server);
+                evicted.incrementAndGet();
+                left(victim);
+
+                // Its time is recent, a restart would bring it back
+                if (journal != null) {
+                    journal.remove(victim);
+                }
+
+                // Or a peer would push it back on its next full sync
+                var gossip = this.gossip;
+                if (gossip != null) {
+                    gossip.evict(victim);
                 }
             }
         }
     }
 
+    /**
+     * Removes a server another node of the cluster expired, unless we heard
+     * from it after time
+     */
+    public void removeServer(Server server, long time) {
+        if (serverList.remove(server, time)) {
+            Log.debug("removeServer: %s expired on another node", server);
+            left(server);
+            invalidateResponses();
+
+            if (limits != null) {
+                limits.forget(server);
+            }
+
+            if (journal != null) {
+                journal.expire(server);
+            }
+        }
+    }
+
+    /**
+     * Goes through the whole list at once. Inactive servers are removed in
+     * the background, this is only here for a full sweep on demand
+     */
+    public void removeInactive() {
+        serverList.removeInactive(System.currentTimeMillis() / 1000L);
+    }
+
+    private void onExpire(Server server) {
+        Log.info("Removing server %s because of inactivity", server.getAddress());
+        expired.incrementAndGet();
+        left(server);
+        invalidateResponses();
+
+        if (limits != null) {
+            limits.forget(server);
+        }
+
+        if (journal != null) {
+            journal.expire(server);
+        }
+
+        var gossip = this.gossip;
+        if (gossip != null) {
+            gossip.expire(server);
+        }
+    }
+
+    /**
+     * A server came back on another version and took the place of server
+     */
+    private void onReplace(Server server) {
+        left(server);
+
+        if (limits != null) {
+            limits.forget(server);
+        }
+
+        if (journal != null) {
+            journal.remove(server);
+        }
+
+        var gossip = this.gossip;
+        if (gossip != null) {
+            gossip.expire(server);
+        }
+    }
+
+    private void joined(Server server) {
+        registeredVersions.merge(server.getVersion(), 1, Integer::sum);
+    }
+
+    private void left(Server server) {
+        registeredVersions.computeIfPresent(server.getVersion(), (version, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * @return the expiry wheel of the store, null if it sweeps without one
+     */
+    public ExpiryWheel getExpiryWheel() {
+        if (serverList instanceof HashServerStore) {
+            return ((HashServerStore) serverList).getExpiry();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return how many servers were removed because of inactivity
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @return how many servers were removed to stay within the caps
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * @return the registered servers, may be a live read-only view or a copy
+     * depending on the storage
+     */
+    public Collection<Server> getServers() {
+        return serverList.servers();
+    }
+
+    public int size() {
+        return serverList.size();
+    }
+
+    /**
+     * @param visitor called for every registered IPv4 server
+     */
+    public void forEach(ServerStore.Visitor visitor) {
+        serverList.forEach(visitor);
+    }
+
     /**
      * The first 4 bytes will contain the numbers of servers we are going to
      * send in LE Then we have 4 bytes for the IP address in LE Finally 2 bytes
      * for the net_port in LE. Repeat for each server
      *
+     * The response is cached per version and only rebuilt after a server
+     * joined or expired. Only versions some server registered with are
+     * cached, any other gets a shared empty response without a look at the
+     * store. The returned array is shared and must not be modified.
+     *
      * @param version the version of the client
      * @return the raw bytes to send to the client
      */
     public byte[] createResponse(int version) {
-        var builder = new ByteArrayOutputStream();
-
-        // We need to swap everything to LE
-        var sizeBE = serverList.size();
-        var sizeLE = Utils.longSwap(sizeBE);
-
-        try {
-            builder.write(sizeLE);
-        }
-        catch (IOException ex) {
-            System.err.println("createResponse: IOException in builder.write(sizeLE)");
-        }
-
-        synchronized (serverList) {
-            var it = serverList.iterator(); // Must be in the synchronized block
-            while (it.hasNext()) {
-                var server = it.next();
-                // Let's make sure we send the client only servers on the same version
-                // 2023 Update: They changed the magic so add option to disable this check
-                if (server.getVersion() == version) {
-                    try {
-                        // Let's flip the bytes of this one too
-                        var ipBE = server.getAddress().getAddress();
-                        Utils.swapByteArray(ipBE);
-
-                        // And the port too of course
-                        var portBE = server.getNetPort();
-                        var portLE = Utils.shortSwap(portBE);
-
-                        builder.write(ipBE);
-                        builder.write(portLE);
-                    }
-                    catch (IOException ex) {
-                        System.err.println("createResponse: IOException while writing server data");
-                    }
-                }
+        // Read the generation before building. If the list changes while we
+        // build, the generation moves on and the next query rebuilds
+        if (!registeredVersions.containsKey(version)) {
+            return EMPTY_RESPONSE;
+        }
+
+        var current = generation.get();
+
+        var cached = responses.get(version);
+        if (cached != null && cached.generation == current) {
+            return cached.pages[0];
+        }
+
+        var data = buildResponse(version);
+        if (data.length == PacketCodec.LIST_HEADER_LEN) {
+            return EMPTY_RESPONSE;
+        }
+
+        cache(responses, version, new CachedResponse(current, new byte[][]{data}));
+
+        return data;
+    }
+
+    /**
+     * Same response as createResponse but in pages of at most pageEntries
+     * entries, the first one starting with the count. Sent one after the
+     * other they make up the usual reply, but no single array has to hold a
+     * whole big list and nothing is copied to grow one. Cached the same way
+     *
+     * @param version the version of the client
+     * @param pageEntries entries per page
+     * @return the pages to send in order, shared and must not be modified
+     */
+    public byte[][] createResponsePages(int version, int pageEntries) {
+        if (!registeredVersions.containsKey(version)) {
+            return new byte[][]{EMPTY_RESPONSE};
+        }
+
+        var current = generation.get();
+
+        var cached = pagedResponses.get(version);
+        if (cached != null && cached.generation == current && cached.pages[0].length <= pageBytes(pageEntries)) {
+            return cached.pages;
+        }
+
+        var builder = new PagedResponseBuilder(pageEntries, version);
+        serverList.forEach(builder);
+
+        var pages = builder.toPages();
+        if (pages[0].length == PacketCodec.LIST_HEADER_LEN) {
+            return new byte[][]{EMPTY_RESPONSE};
+        }
+
+        cache(pagedResponses, version, new CachedResponse(current, pages));
+
+        return pages;
+    }
+
+    /**
+     * Keeps at most MAX_CACHED_VERSIONS responses. Responses to an older list
+     * make room first, if they are all current the new one is not cached
+     */
+    private static void cache(Map<Integer, CachedResponse> cache, int version, CachedResponse response) {
+        if (!cache.containsKey(version) && cache.size() >= MAX_CACHED_VERSIONS) {
+            cache.values().removeIf(cached -> cached.generation != response.generation);
+            if (cache.size() >= MAX_CACHED_VERSIONS) {
+                return;
             }
         }
 
-        // I forgot why I do this
-        var byteBuffer = ByteBuffer.allocate(builder.size());
-        byteBuffer.clear();
-        byteBuffer.put(builder.toByteArray());
-        byteBuffer.flip();
+        cache.put(version, response);
+    }
+
+    private static int pageBytes(int pageEntries) {
+        return PacketCodec.LIST_HEADER_LEN + pageEntries * PacketCodec.LIST_ENTRY_LEN;
+    }
+
+    /**
+     * Builds a response without going through the cache. Package-private for
+     * the benchmarks
+     */
+    byte[] buildResponse(int version) {
+        // Size is only a guess, the list can change while we go through it
+        var buffer = new ResponseBuilder(serverList.size(), version);
+        serverList.forEach(buffer);
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Writes the matching entries after a placeholder count and patches the
+     * count at the end, so it always matches what was written
+     */
+    private static class ResponseBuilder implements ServerStore.Visitor {
+
+        private final int version;
+
+        private byte[] data;
+
+        private int count;
+
+        private ResponseBuilder(int expected, int version) {
+            this.version = version;
+            this.data = new byte[PacketCodec.LIST_HEADER_LEN + expected * PacketCodec.LIST_ENTRY_LEN];
+        }
+
+        @Override
+        public void visit(int ip, short netPort, int version, long time) {
+            // Let's make sure we send the client only servers on the same version
+            // 2023 Update: They changed the magic so add option to disable this check
+            if (version != this.version) {
+                return;
+            }
+
+            if (length() + PacketCodec.LIST_ENTRY_LEN > data.length) {
+                data = Arrays.copyOf(data, data.length * 2 + PacketCodec.LIST_ENTRY_LEN);
+            }
 
-        try {
-            builder.close();
+            PacketCodec.writeListEntry(data, count++, ip, netPort);
         }
-        catch (IOException ex) {
-            System.err.println("createResponse: IOException in builder.close()");
+
+        private int length() {
+            return PacketCodec.LIST_HEADER_LEN + count * PacketCodec.LIST_ENTRY_LEN;
         }
 
-        return byteBuffer.array();
+        private byte[] toByteArray() {
+            PacketCodec.writeListCount(data, count);
+
+            if (length() == data.length) {
+                return data;
+            }
+
+            return Arrays.copyOf(data, length());
+        }
     }
 
-    public void dumpOnlineServers() {
-        if (!Main.running.get()) {
-            return;
+    /**
+     * Fills pages of a fixed size and starts a new one when the current one
+     * is full. The first page has room for the count in front
+     */
+    private static class PagedResponseBuilder implements ServerStore.Visitor {
+
+        private final int version;
+
+        private final int pageEntries;
+
+        private final List<byte[]> pages = new ArrayList<>();
+
+        private byte[] page;
+
+        private int length;
+
+        private int count;
+
+        private PagedResponseBuilder(int pageEntries, int version) {
+            this.pageEntries = pageEntries;
+            this.version = version;
+
+            page = new byte[pageBytes(pageEntries)];
+            length = PacketCodec.LIST_HEADER_LEN;
+        }
+
+        @Override
+        public void visit(int ip, short netPort, int version, long time) {
+            if (version != this.version) {
+                return;
+            }
+
+            if (length == page.length) {
+                pages.add(page);
+                page = new byte[pageEntries * PacketCodec.LIST_ENTRY_LEN];
+                length = 0;
+            }
+
+            PacketCodec.writeInt(page, length, ip);
+            PacketCodec.writeShort(page, length + 4, netPort);
+            length += PacketCodec.LIST_ENTRY_LEN;
+            ++count;
         }
 
-        var thread = new Thread(new ClientEmulator(serverList));
-        thread.start();
+        private byte[][] toPages() {
+            pages.add(length == page.length ? page : Arrays.copyOf(page, length));
+            PacketCodec.writeListCount(pages.get(0), count);
+
+            return pages.toArray(new byte[0][]);
+        }
+    }
+
+    /**
+     * Must be called after a server joined or left the list
+     */
+    private void invalidateResponses() {
+        generation.incrementAndGet();
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.util.Collection;
+
+/**
+ * Where ServerList keeps the registered servers. Implementations must be safe
+ * to use from multiple threads.
+ *
+ * @author Diamante
+ */
+public interface ServerStore {
+
+    /**
+     * Called for each entry by forEach. ip is IPv4 in BE
+     */
+    interface Visitor {
+
+        void visit(int ip, short netPort, int version, long time);
+    }
+
+    /**
+     * Registers server or refreshes its time if it is already registered
+     *
+     * @param server the server that sent a heartbeat
+     * @return true if the server was not registered before
+     */
+    boolean upsert(Server server);
+
+    /**
+     * Refreshes the time of server if it is registered
+     *
+     * @param server the server
+     * @return true if it is registered
+     */
+    boolean refresh(Server server);
+
+    /**
+     * Unlike refresh, leaves the time alone
+     *
+     * @param server the server
+     * @return true if it is registered
+     */
+    boolean contains(Server server);
+
+    /**
+     * Registers server or moves its time forward to the time of server, never
+     * back. For entries learned from another node, whose time is not now
+     *
+     * @param server the server with its last known time
+     * @return true if the server was not registered before
+     */
+    boolean merge(Server server);
+
+    /**
+     * Removes server unless it sent a heartbeat after time. Does not count as
+     * an expiry
+     *
+     * @param server the server to remove
+     * @param time the last heartbeat the remover knew of
+     * @return true if it was removed
+     */
+    boolean remove(Server server, long time);
+
+    /**
+     * Does the incremental expiry work for one second. Only one thread may
+     * call this
+     *
+     * @param now the current time in seconds
+     */
+    void tick(long now);
+
+    /**
+     * Goes through every entry at once and removes the inactive ones
+     *
+     * @param now the current time in seconds
+     */
+    void removeInactive(long now);
+
+    void forEach(Visitor visitor);
+
+    /**
+     * @return the registered servers. May be a live view or a copy
+     */
+    Collection<Server> servers();
+
+    int size();
+}
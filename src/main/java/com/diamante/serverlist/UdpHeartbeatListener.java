@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Takes heartbeats as single datagrams, the same 10 bytes a game server sends
+ * over TCP. No handshake and no connection state, so a heartbeat costs one
+ * receive instead of an accept, a read and a close.
+ *
+ * The source address of a datagram can be forged, so a server is only added
+ * once it proved it gets datagrams at its address. A heartbeat from a server
+ * that is not on the list is answered with a challenge, and the server joins
+ * when it sends the heartbeat again with the cookie from it appended. Once
+ * listed, a plain heartbeat keeps it there. All LE:
+ * <pre>
+ * heartbeat: magic(4) version(4) net_port(2)
+ * challenge: CHALLENGE_MAGIC(4) cookie(4)
+ * join:      magic(4) version(4) net_port(2) cookie(4)
+ * </pre>
+ *
+ * The cookie is an HMAC over the address, the net_port and the current
+ * COOKIE_WINDOW under a key that never leaves the process, so nothing is
+ * kept per challenge. A challenge is smaller than the heartbeat it answers,
+ * a forged heartbeat can't make us send anybody more than it cost.
+ *
+ * Only heartbeats are taken. A list query is never answered over UDP, the
+ * reply is far bigger than the request and anybody could have it sent to a
+ * spoofed address. Heartbeats still go through PacketHandler, so the per
+ * address budget and the registry caps apply to them like over TCP.
+ *
+ * @author Diamante
+ */
+public class UdpHeartbeatListener {
+
+    public static final int CHALLENGE_MAGIC = 0x4C484350; // PCHL
+
+    public static final int CHALLENGE_LEN = 8;
+
+    public static final int COOKIE_LEN = 4;
+
+    public static final int JOIN_LEN = Utils.PACKET_SERVERT_LEN + COOKIE_LEN;
+
+    // Seconds a cookie is good for, give or take one more
+    private static final long COOKIE_WINDOW = 30;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final PacketHandler handler;
+
+    private final LongAdder malformed = new LongAdder();
+
+    private final LongAdder challenges = new LongAdder();
+
+    // Only used on the receive thread
+    private Mac mac;
+
+    private DatagramChannel channel;
+
+    /**
+     * @param handler where heartbeats are handled
+     * @param port UDP port to listen on
+     */
+    public UdpHeartbeatListener(PacketHandler handler, int port) {
+        this.handler = handler;
+
+        var key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        try {
+            mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+        } catch (GeneralSecurityException ex) {
+            // Every JRE has HmacSHA256
+            throw new IllegalStateException(ex);
+        }
+
+        try {
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(port));
+        } catch (IOException ex) {
+            Log.error("UdpHeartbeatListener: could not bind to UDP port %d", port);
+            channel = null;
+            return;
+        }
+
+        var receiver = new Thread(this::receiveLoop, "UdpHeartbeatListener");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        Log.info("UdpHeartbeatListener: listening on UDP port %d", port);
+    }
+
+    public void stop() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Log.error("UdpHeartbeatListener: IOException in channel.close()");
+        }
+    }
+
+    /**
+     * @return datagrams that were not a heartbeat or had a bad cookie
+     */
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    /**
+     * @return challenges sent to servers that are not listed yet
+     */
+    public long getChallenges() {
+        return challenges.sum();
+    }
+
+    private void receiveLoop() {
+        // One byte more than the longest datagram so we can tell when there
+        // was more
+        var packet = ByteBuffer.allocate(JOIN_LEN + 1);
+        var challenge = ByteBuffer.allocate(CHALLENGE_LEN).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (true) {
+            InetSocketAddress from;
+            try {
+                packet.clear();
+                from = (InetSocketAddress) channel.receive(packet);
+            } catch (ClosedChannelException ex) {
+                return;
+            } catch (IOException ex) {
+                Log.error("UdpHeartbeatListener: IOException in channel.receive()");
+                continue;
+            }
+
+            var length = packet.position();
+            var data = packet.array();
+            if ((length != Utils.PACKET_SERVERT_LEN && length != JOIN_LEN) || !Utils.isServerMagic(PacketCodec.magic(data))) {
+                Log.debug("UdpHeartbeatListener: ignoring a %d byte datagram from %s", length, from);
+                malformed.increment();
+                continue;
+            }
+
+            var address = from.getAddress();
+            var netPort = PacketCodec.netPort(data);
+
+            if (length == JOIN_LEN) {
+                if (!checkCookie(address.getAddress(), netPort, PacketCodec.readInt(data, Utils.PACKET_SERVERT_LEN))) {
+                    Log.debug("UdpHeartbeatListener: bad cookie from %s", from);
+                    malformed.increment();
+                    continue;
+                }
+            } else if (!handler.getServerList().containsServer(new Server(address, netPort, PacketCodec.version(data)))) {
+                // Make it prove the address is its own first. Only a lookup,
+                // the time is refreshed by handlePacket once admission let
+                // the heartbeat through
+                challenge.clear();
+                challenge.putInt(CHALLENGE_MAGIC).putInt(cookie(address.getAddress(), netPort, now()));
+                challenge.flip();
+
+                try {
+                    channel.send(challenge, from);
+                    challenges.increment();
+                } catch (IOException ex) {
+                    Log.debug("UdpHeartbeatListener: could not send a challenge to %s", from);
+                }
+                continue;
+            }
+
+            handler.handlePacket(address, data, Utils.PACKET_SERVERT_LEN);
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000L / COOKIE_WINDOW;
+    }
+
+    private int cookie(byte[] address, short netPort, long window) {
+        mac.update(address);
+        mac.update((byte) netPort);
+        mac.update((byte) (netPort >>> 8));
+        for (var i = 0; i < 8; ++i) {
+            mac.update((byte) (window >>> (i * 8)));
+        }
+
+        return PacketCodec.readInt(mac.doFinal(), 0);
+    }
+
+    /**
+     * Takes cookies of this window and the one before, so one handed out
+     * just before the window turned still works
+     */
+    private boolean checkCookie(byte[] address, short netPort, int cookie) {
+        var window = now();
+        return cookie(address, netPort, window) == cookie || cookie(address, netPort, window - 1) == cookie;
+    }
+}
@@ -21,12 +21,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 
-import java.nio.BufferOverflowException;
-import java.nio.ReadOnlyBufferException;
-import java.nio.ByteBuffer;
-
 import org.json.simple.JSONObject;
 
 /**
@@ -58,6 +55,18 @@ public class Utils {
         return magic == NEW_CLIENT_MAGIC;
     }
 
+    /**
+     * @param magic the magic of the packet in BE
+     * @return how many bytes make up a complete packet starting with magic
+     */
+    public static int frameLength(int magic) {
+        if (isServerMagic(magic)) {
+            return PACKET_SERVERT_LEN;
+        }
+
+        return PACKET_CLIENT_LEN;
+    }
+
     public static int bytesToInt(byte[] bytes) {
         if (bytes.length != 4) {
             throw new IllegalArgumentException("Array must contain exactly 4 bytes.");
@@ -98,16 +107,7 @@ public class Utils {
     public static int longSwap(byte[] in) {
         assert in.length == 4;
 
-        var buffer = ByteBuffer.allocate(4);
-        buffer.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-        try {
-            buffer.put(in);
-            return buffer.getInt(0);
-        }
-        catch (BufferOverflowException | ReadOnlyBufferException ex) {
-            System.err.println("longSwap: BufferOverflowException or ReadOnlyBufferException");
-            return -1;
-        }
+        return PacketCodec.readInt(in, 0);
     }
 
     /**
@@ -116,10 +116,9 @@ public class Utils {
      * @return raw bytes in LE order
      */
     public static byte[] longSwap(int in) {
-        var buffer = ByteBuffer.allocate(4);
-        buffer.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-        buffer.putInt(in);
-        return buffer.array();
+        var out = new byte[4];
+        PacketCodec.writeInt(out, 0, in);
+        return out;
     }
 
     /**
@@ -129,16 +128,7 @@ public class Utils {
     public static short shortSwap(byte[] in) {
         assert in.length == 2;
 
-        var buffer = ByteBuffer.allocate(2);
-        buffer.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-        try {
-            buffer.put(in);
-            return buffer.getShort(0);
-        }
-        catch (BufferOverflowException | ReadOnlyBufferException ex) {
-            System.err.println("shortSwap: BufferOverflowException or ReadOnlyBufferException");
-            return -1;
-        }
+        return PacketCodec.readShort(in, 0);
     }
 
     /**
@@ -147,10 +137,9 @@ public class Utils {
      * @return raw bytes in LE order
      */
     public static byte[] shortSwap(short in) {
-        var buffer = ByteBuffer.allocate(2);
-        buffer.order(java.nio.ByteOrder.LITTLE_ENDIAN);
-        buffer.putShort(in);
-        return buffer.array();
+        var out = new byte[2];
+        PacketCodec.writeShort(out, 0, in);
+        return out;
     }
 
     public static Server stringToServer(String in) {
@@ -168,6 +157,24 @@ public class Utils {
         }
     }
 
+    /**
+     * @param in host or host:port
+     * @param defaultPort used if in has no port
+     * @return the resolved address or null if in is not valid
+     */
+    public static InetSocketAddress stringToAddress(String in, int defaultPort) {
+        var parts = in.split(":");
+
+        try {
+            var port = parts.length < 2 ? defaultPort : Integer.parseInt(parts[1]);
+            var address = new InetSocketAddress(parts[0], port);
+            return address.isUnresolved() ? null : address;
+        }
+        catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
     public static String bytesToIP(int in) {
         String ipAddress = String.format(
                 "%d.%d.%d.%d",
@@ -180,6 +187,14 @@ public class Utils {
         return ipAddress;
     }
 
+    /**
+     * @param in IPv4 address in BE
+     * @return the address in dotted form
+     */
+    public static String ipToString(int in) {
+        return bytesToIP(Integer.reverseBytes(in));
+    }
+
     public static void saveJSONFile(String fileName, JSONObject obj) {
         try {
             var writer = new BufferedWriter(new FileWriter(fileName));
@@ -187,7 +202,7 @@ public class Utils {
             writer.close();
         }
         catch (IOException ex) {
-            System.err.println("saveJSONFile: IOException while writing a JSON file");
+            Log.error("saveJSONFile: IOException while writing a JSON file");
         }
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.io.IOException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands every accepted connection to its own thread. On JDK 21+ those are
+ * virtual threads, on older runtimes we fall back to a fixed pool of at most
+ * PLATFORM_MAX_CONNECTIONS platform threads. Either way at most maxConnections
+ * are handled at the same time, the accept loop waits for a slot to free up
+ * otherwise.
+ *
+ * @author Diamante
+ */
+public class VirtualThreadMasterServer extends MasterServer {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 10000;
+
+    // Each platform thread costs a full stack, so without virtual threads
+    // maxConnections is capped to this
+    public static final int PLATFORM_MAX_CONNECTIONS = 256;
+
+    private final ExecutorService executor;
+
+    private final Semaphore slots;
+
+    public VirtualThreadMasterServer(int maxConnections) {
+        this(new PacketHandler(), maxConnections);
+    }
+
+    public VirtualThreadMasterServer(PacketHandler handler, int maxConnections) {
+        super(handler);
+
+        var virtual = createExecutor();
+        if (virtual == null) {
+            var limit = Math.min(maxConnections, PLATFORM_MAX_CONNECTIONS);
+            Log.info("VirtualThreadMasterServer: virtual threads are not available, using %d platform threads", limit);
+
+            executor = Executors.newFixedThreadPool(limit);
+            slots = new Semaphore(limit);
+        } else {
+            Log.info("VirtualThreadMasterServer: using virtual threads");
+
+            executor = virtual;
+            slots = new Semaphore(maxConnections);
+        }
+    }
+
+    /**
+     * We compile against Java 17 so newVirtualThreadPerTaskExecutor has to be
+     * looked up at runtime
+     *
+     * @return a virtual thread executor or null if the runtime has none
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void await() {
+        try {
+            slots.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        var worker = accept();
+        if (worker == null) {
+            slots.release();
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    handleConnection(worker);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            Log.warn("await: RejectedExecutionException in executor.execute()");
+            slots.release();
+
+            try {
+                worker.close();
+            } catch (IOException ex2) {
+                Log.error("await: IOException in worker.close()");
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
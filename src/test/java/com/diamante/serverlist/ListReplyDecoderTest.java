@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Diamante
+ */
+public class ListReplyDecoderTest {
+
+    // Fixed so a failure can be reproduced
+    private final Random random = new Random(27017);
+
+    private byte[] reply(int count) {
+        var reply = new byte[PacketCodec.LIST_HEADER_LEN + count * PacketCodec.LIST_ENTRY_LEN];
+        PacketCodec.writeListCount(reply, count);
+        for (var i = 0; i < count; ++i) {
+            PacketCodec.writeListEntry(reply, i, random.nextInt(), (short) random.nextInt(0x10000));
+        }
+
+        return reply;
+    }
+
+    @Test
+    public void matchesCodec() {
+        var count = 100;
+        var reply = reply(count);
+
+        // One byte at a time splits the header and every entry
+        var seen = new int[1];
+        var decoder = new ListReplyDecoder((ip, netPort) -> {
+            assertEquals(PacketCodec.listEntryIp(reply, seen[0]), ip);
+            assertEquals(PacketCodec.listEntryPort(reply, seen[0]), netPort);
+            ++seen[0];
+        });
+        for (var i = 0; i < reply.length; ++i) {
+            assertFalse(decoder.isComplete());
+            decoder.feed(reply, i, 1);
+        }
+
+        assertEquals(count, seen[0]);
+        assertTrue(decoder.isComplete());
+        assertTrue(decoder.isValid());
+    }
+
+    @Test
+    public void trailingBytesAreInvalid() {
+        var reply = reply(3);
+        var longer = new byte[reply.length + 1];
+        System.arraycopy(reply, 0, longer, 0, reply.length);
+
+        var decoder = new ListReplyDecoder((ip, netPort) -> {
+        });
+        decoder.feed(longer, 0, longer.length);
+
+        assertTrue(decoder.isComplete());
+        assertFalse(decoder.isValid());
+    }
+}
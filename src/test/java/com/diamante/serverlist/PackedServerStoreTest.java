@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Diamante
+ */
+public class PackedServerStoreTest {
+
+    private static Server server(int version, long time) throws UnknownHostException {
+        var server = new Server(InetAddress.getByAddress(new byte[]{10, 0, 0, 1}), (short) 27015, version);
+        server.setTime(time);
+        return server;
+    }
+
+    @Test
+    public void keepsTimesPast2038() throws UnknownHostException {
+        var store = new PackedServerStore(60, server -> {}, server -> {});
+
+        // 2040-01-01
+        var time = 2208988800L;
+        store.upsert(server(1, time));
+
+        assertEquals(time, store.servers().iterator().next().getTime());
+    }
+
+    @Test
+    public void replacedEntryKeepsItsTime() throws UnknownHostException {
+        var replaced = new ArrayList<Server>();
+        var store = new PackedServerStore(60, server -> {}, replaced::add);
+
+        store.upsert(server(1, 1700000000L));
+        store.upsert(server(2, 1700000030L));
+
+        assertEquals(1, replaced.size());
+        assertEquals(1, replaced.get(0).getVersion());
+        assertEquals(1700000000L, replaced.get(0).getTime());
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks PacketCodec against the byte layout the wire had before it. The
+ * old Utils swaps now go through PacketCodec themselves, so the old
+ * ByteBuffer based code is kept here as the reference.
+ *
+ * @author Diamante
+ */
+public class PacketCodecTest {
+
+    private static final int ROUNDS = 10000;
+
+    // Fixed so a failure can be reproduced
+    private final Random random = new Random(27017);
+
+    /**
+     * The old Utils.longSwap(byte[])
+     */
+    private static int oldLongSwap(byte[] in) {
+        return ByteBuffer.wrap(in).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+    }
+
+    /**
+     * The old Utils.longSwap(int)
+     */
+    private static byte[] oldLongSwap(int in) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(in).array();
+    }
+
+    /**
+     * The old Utils.shortSwap(byte[])
+     */
+    private static short oldShortSwap(byte[] in) {
+        return ByteBuffer.wrap(in).order(ByteOrder.LITTLE_ENDIAN).getShort(0);
+    }
+
+    @Test
+    public void fieldsMatchByteBuffer() {
+        var data = new byte[64];
+
+        // Every offset, most of them unaligned
+        for (var i = 0; i < ROUNDS; ++i) {
+            var offset = random.nextInt(data.length - 4);
+            var value = random.nextInt();
+            var expected = ByteBuffer.allocate(data.length).order(ByteOrder.LITTLE_ENDIAN);
+
+            Arrays.fill(data, (byte) 0);
+            PacketCodec.writeInt(data, offset, value);
+            expected.putInt(offset, value);
+            assertArrayEquals(expected.array(), data);
+            assertEquals(value, PacketCodec.readInt(data, offset));
+
+            Arrays.fill(data, (byte) 0);
+            PacketCodec.writeShort(data, offset, (short) value);
+            expected.putInt(offset, 0).putShort(offset, (short) value);
+            assertArrayEquals(expected.array(), data);
+            assertEquals((short) value, PacketCodec.readShort(data, offset));
+        }
+    }
+
+    @Test
+    public void heartbeatMatchesOldLayout() {
+        for (var i = 0; i < ROUNDS; ++i) {
+            var version = random.nextInt();
+            var port = random.nextInt(0x10000);
+
+            // How ServerEmulator used to build it
+            var expected = new byte[Utils.PACKET_SERVERT_LEN];
+            System.arraycopy(oldLongSwap(Utils.OLD_SERVER_MAGIC), 0, expected, 0, 4);
+            System.arraycopy(oldLongSwap(version), 0, expected, 4, 4);
+            System.arraycopy(oldLongSwap(port), 0, expected, 8, 2);
+
+            var actual = new byte[Utils.PACKET_SERVERT_LEN];
+            assertEquals(Utils.PACKET_SERVERT_LEN, PacketCodec.writeHeartbeat(actual, version, (short) port));
+            assertArrayEquals(expected, actual);
+
+            // How PacketHandler used to read it
+            assertEquals(oldLongSwap(Arrays.copyOfRange(expected, 0, 4)), PacketCodec.magic(actual));
+            assertEquals(oldLongSwap(Arrays.copyOfRange(expected, 4, 8)), PacketCodec.version(actual));
+            assertEquals(oldShortSwap(Arrays.copyOfRange(expected, 8, 10)), PacketCodec.netPort(actual));
+        }
+    }
+
+    @Test
+    public void clientQueryMatchesOldLayout() {
+        for (var i = 0; i < ROUNDS; ++i) {
+            var magic = random.nextInt();
+            var version = random.nextInt();
+
+            // How MasterServerPinger used to build it
+            var expected = new byte[Utils.PACKET_CLIENT_LEN];
+            System.arraycopy(oldLongSwap(magic), 0, expected, 0, 4);
+            System.arraycopy(oldLongSwap(version), 0, expected, 4, 4);
+
+            var actual = new byte[Utils.PACKET_CLIENT_LEN];
+            assertEquals(Utils.PACKET_CLIENT_LEN, PacketCodec.writeClientQuery(actual, magic, version));
+            assertArrayEquals(expected, actual);
+
+            assertEquals(magic, PacketCodec.magic(actual));
+            assertEquals(version, PacketCodec.version(actual));
+        }
+    }
+
+    @Test
+    public void listReplyMatchesOldLayout() {
+        var count = 1000;
+
+        // How ServerList used to build it
+        var old = ByteBuffer.allocate(PacketCodec.LIST_HEADER_LEN + count * PacketCodec.LIST_ENTRY_LEN).order(ByteOrder.LITTLE_ENDIAN);
+        old.putInt(count);
+
+        var actual = new byte[old.capacity()];
+        PacketCodec.writeListCount(actual, count);
+
+        var ips = new int[count];
+        var ports = new short[count];
+        for (var i = 0; i < count; ++i) {
+            ips[i] = random.nextInt();
+            ports[i] = (short) random.nextInt(0x10000);
+
+            old.putInt(ips[i]);
+            old.putShort(ports[i]);
+            PacketCodec.writeListEntry(actual, i, ips[i], ports[i]);
+        }
+
+        var expected = old.array();
+        assertArrayEquals(expected, actual);
+        assertEquals(count, PacketCodec.listCount(actual));
+
+        // How MasterServerPinger used to read it
+        for (var i = 0; i < count; ++i) {
+            var offset = PacketCodec.LIST_HEADER_LEN + i * PacketCodec.LIST_ENTRY_LEN;
+            var oldIp = Utils.bytesToIP(Utils.bytesToInt(Arrays.copyOfRange(expected, offset, offset + 4)));
+            var oldPort = oldShortSwap(Arrays.copyOfRange(expected, offset + 4, offset + 6));
+
+            assertEquals(oldIp, Utils.ipToString(PacketCodec.listEntryIp(actual, i)));
+            assertEquals(oldPort, PacketCodec.listEntryPort(actual, i));
+            assertEquals(ips[i], PacketCodec.listEntryIp(actual, i));
+        }
+    }
+
+    @Test
+    public void infoMatchesOldLayout() {
+        for (var i = 0; i < ROUNDS; ++i) {
+            var tick = random.nextInt();
+
+            // How the info query used to be built
+            var expected = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(ClientEmulator.SERVER_QUERY).putInt(tick).array();
+
+            var actual = new byte[8];
+            assertEquals(8, PacketCodec.writeInfoQuery(actual, tick));
+            assertArrayEquals(expected, actual);
+
+            var reply = new byte[ClientEmulator.SERVER_INFO_SIZE];
+            random.nextBytes(reply);
+
+            // How InfoDumper used to read it
+            assertEquals(oldLongSwap(Arrays.copyOfRange(reply, 0, 4)), PacketCodec.magic(reply));
+            assertEquals(oldLongSwap(Arrays.copyOfRange(reply, 4, 8)), PacketCodec.infoTick(reply));
+            assertEquals(oldLongSwap(Arrays.copyOfRange(reply, 8, 12)), PacketCodec.infoPlayers(reply));
+            assertEquals(oldLongSwap(Arrays.copyOfRange(reply, 12, 16)), PacketCodec.infoMaxPlayers(reply));
+
+            var oldInfo = new String(Arrays.copyOfRange(reply, 81, 81 + 2048), StandardCharsets.UTF_8);
+            assertEquals(oldInfo, new String(reply, PacketCodec.INFO_STRING_OFFSET, PacketCodec.INFO_STRING_LEN, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.nio.file.Path;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Diamante
+ */
+public class RegistryJournalTest {
+
+    private static final long NOW = 1700000000L;
+
+    @TempDir
+    Path dir;
+
+    private static Server server(int host, int port) throws UnknownHostException {
+        var address = InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) host});
+        var server = new Server(address, (short) port, Utils.CLIENT_VERSION);
+        server.setTime(NOW);
+        return server;
+    }
+
+    private Set<Server> restart() {
+        var journal = new RegistryJournal(dir.resolve("registry").toString(), new PackedServerStore(60, server -> {}, server -> {}));
+        return new HashSet<>(journal.restore(NOW, 60));
+    }
+
+    @Test
+    public void removalsAreReplayed() throws UnknownHostException {
+        var store = new PackedServerStore(60, server -> {}, server -> {});
+        var journal = new RegistryJournal(dir.resolve("registry").toString(), store);
+        journal.restore(NOW, 60);
+        journal.snapshot();
+
+        for (var host = 1; host <= 3; ++host) {
+            store.upsert(server(host, 1));
+            journal.join(server(host, 1));
+        }
+
+        store.remove(server(1, 1), Long.MAX_VALUE);
+        journal.remove(server(1, 1));
+        store.remove(server(2, 1), Long.MAX_VALUE);
+        journal.expire(server(2, 1));
+
+        // No snapshot since the joins, all of it comes from the journal
+        assertEquals(Set.of(server(3, 1)), restart());
+    }
+
+    @Test
+    public void journalOutlivesTheSnapshot() throws UnknownHostException {
+        var store = new PackedServerStore(60, server -> {}, server -> {});
+        var journal = new RegistryJournal(dir.resolve("registry").toString(), store);
+        journal.restore(NOW, 60);
+        journal.snapshot();
+
+        store.upsert(server(1, 1));
+        journal.join(server(1, 1));
+        journal.snapshot();
+
+        store.upsert(server(2, 1));
+        journal.join(server(2, 1));
+        store.remove(server(1, 1), Long.MAX_VALUE);
+        journal.remove(server(1, 1));
+
+        assertEquals(Set.of(server(2, 1)), restart());
+    }
+
+    @Test
+    public void appendsDuringASnapshotAreKept() throws UnknownHostException {
+        var journal = new RegistryJournal[1];
+        var joining = server(2, 1);
+
+        // Joins a server while the snapshot goes through the store, after
+        // the snapshot took its mark
+        var store = new PackedServerStore(60, server -> {}, server -> {}) {
+            @Override
+            public void forEach(ServerStore.Visitor visitor) {
+                super.forEach(visitor);
+                journal[0].join(joining);
+            }
+        };
+
+        journal[0] = new RegistryJournal(dir.resolve("registry").toString(), store);
+        journal[0].restore(NOW, 60);
+        journal[0].snapshot();
+
+        store.upsert(server(1, 1));
+        journal[0].join(server(1, 1));
+        journal[0].snapshot();
+
+        assertEquals(Set.of(server(1, 1), joining), restart());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Diamante
+ */
+public class RegistryLimitsTest {
+
+    private static Server server(int host, int port) throws UnknownHostException {
+        var address = InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) host});
+        return new Server(address, (short) port, Utils.CLIENT_VERSION);
+    }
+
+    @Test
+    public void evictsTheOldestOfAnAddress() throws UnknownHostException {
+        var limits = new RegistryLimits(0, 2);
+
+        assertTrue(limits.add(server(1, 1)).isEmpty());
+        assertTrue(limits.add(server(1, 2)).isEmpty());
+        assertEquals(List.of(server(1, 1)), limits.add(server(1, 3)));
+
+        // Another address has its own budget
+        assertTrue(limits.add(server(2, 1)).isEmpty());
+    }
+
+    @Test
+    public void heartbeatGivesAnotherLap() throws UnknownHostException {
+        var limits = new RegistryLimits(0, 2);
+
+        limits.add(server(1, 1));
+        limits.add(server(1, 2));
+        limits.touch(server(1, 1));
+
+        assertEquals(List.of(server(1, 2)), limits.add(server(1, 3)));
+    }
+
+    @Test
+    public void evictsTheOldestOverall() throws UnknownHostException {
+        var limits = new RegistryLimits(3, 0);
+
+        limits.add(server(1, 1));
+        limits.add(server(2, 1));
+        limits.add(server(3, 1));
+        limits.touch(server(1, 1));
+
+        assertEquals(List.of(server(2, 1)), limits.add(server(4, 1)));
+    }
+
+    @Test
+    public void forgetFreesASlot() throws UnknownHostException {
+        var limits = new RegistryLimits(0, 2);
+
+        limits.add(server(1, 1));
+        limits.add(server(1, 2));
+        limits.forget(server(1, 1));
+
+        assertTrue(limits.add(server(1, 3)).isEmpty());
+    }
+
+    @Test
+    public void scanStopsEarly() throws UnknownHostException {
+        var limits = new RegistryLimits(200, 0);
+
+        for (var host = 0; host < 200; ++host) {
+            limits.add(server(host, 1));
+            limits.touch(server(host, 1));
+        }
+
+        // The first 64 get another lap, then the head goes touched or not
+        assertEquals(List.of(server(64, 1)), limits.add(server(200, 1)));
+    }
+
+    @Test
+    public void neverEvictsTheNewcomer() throws UnknownHostException {
+        var limits = new RegistryLimits(0, 1);
+
+        limits.add(server(1, 1));
+        limits.touch(server(1, 1));
+
+        assertEquals(List.of(server(1, 1)), limits.add(server(1, 2)));
+    }
+}
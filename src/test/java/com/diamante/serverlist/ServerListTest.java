@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2025 Diamante
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.diamante.serverlist;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Diamante
+ */
+public class ServerListTest {
+
+    private static Server server(int host, int version) throws UnknownHostException {
+        var address = InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) host});
+        return new Server(address, (short) 27015, version);
+    }
+
+    @Test
+    public void answersOnlyRegisteredVersions() throws UnknownHostException {
+        for (var storage : ServerList.Storage.values()) {
+            var list = new ServerList(storage);
+            list.addServer(server(1, 1));
+            list.addServer(server(2, 1));
+
+            assertEquals(2, PacketCodec.listCount(list.createResponse(1)));
+            assertEquals(2, PacketCodec.listCount(list.createResponsePages(1, 1)[0]));
+            assertEquals(0, PacketCodec.listCount(list.createResponse(2)));
+            assertEquals(0, PacketCodec.listCount(list.createResponsePages(2, 1)[0]));
+
+            list.removeServer(server(1, 1), Long.MAX_VALUE);
+            list.removeServer(server(2, 1), Long.MAX_VALUE);
+            assertEquals(0, PacketCodec.listCount(list.createResponse(1)));
+        }
+    }
+
+    @Test
+    public void lookupLeavesTheTimeAlone() throws UnknownHostException {
+        for (var storage : ServerList.Storage.values()) {
+            var list = new ServerList(storage);
+            var server = server(1, 1);
+            server.setTime(100);
+            list.addServer(server);
+
+            assertTrue(list.containsServer(server(1, 1)));
+            assertEquals(100, list.getServers().iterator().next().getTime());
+
+            assertTrue(list.isServerRegistered(server(1, 1)));
+            assertNotEquals(100, list.getServers().iterator().next().getTime());
+        }
+    }
+
+    @Test
+    public void versionChangeMovesTheServer() throws UnknownHostException {
+        var list = new ServerList(ServerList.Storage.Packed);
+        list.addServer(server(1, 1));
+        list.addServer(server(1, 2));
+
+        // The packed store keeps one version per address and port
+        assertEquals(0, PacketCodec.listCount(list.createResponse(1)));
+        assertEquals(1, PacketCodec.listCount(list.createResponse(2)));
+    }
+}